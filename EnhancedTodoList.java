@@ -2,17 +2,137 @@
 
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableColumn;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.plaf.basic.BasicScrollBarUI;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.RoundRectangle2D;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;    
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Base64;
 import java.util.HashMap; 
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
 import java.io.*;
-import java.util.Date;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.ToLongFunction;
+import java.util.function.LongUnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.time.LocalDate;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 public class EnhancedTodoList extends JFrame {
   
@@ -21,6 +141,7 @@ public class EnhancedTodoList extends JFrame {
     private JTextField inputField;
     private JButton addButton, removeButton, doneButton, themeButton;
     private JButton removeAllButton, removeCompletedButton, removeSelectedButton;
+    private JButton importButton, exportButton, archiveButton;
     private JTextArea historyArea;
     private JScrollPane historyScroll, taskScroll;
     private JComboBox<Priority> priorityCombo;
@@ -31,9 +152,37 @@ public class EnhancedTodoList extends JFrame {
     private JPopupMenu contextMenu;
     
     
-    private SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
     private File tasksFile = new File("enhanced_tasks.txt");
     private File historyFile = new File("enhanced_history.txt");
+    private HistoryLog historyLog;
+    private Analytics analytics = new Analytics();
+    private NextUp nextUp;
+    private JTable taskTable;
+    private TaskTableModel taskTableModel;
+    private JPanel taskCards;
+    private JButton viewButton;
+    private JButton analyticsButton;
+    private TaskTree taskTree;
+    private TagIndex tagIndex;
+    private TrigramIndex trigramIndex;
+    private final CacheManager caches = CacheManager.configured();
+    private Cache<Task, String> rowCache;
+    private ExecutorService paletteExecutor;
+    private JTextField tagQueryField;
+    private JLabel tagMatchLabel;
+    private JTree treeView;
+    private String taskView = "list";
+    private JList<Task> nextUpList;
+    private DefaultListModel<Task> nextUpModel;
+    private boolean nextUpPending;
+    private boolean painted;
+    private File journalFile = new File("enhanced_tasks.journal");
+    private File archiveDir = new File("enhanced_archive");
+    private TaskArchive archive;
+    private Timer archiveTimer;
+    private TaskService taskService;
+    private SyncServer syncServer;
+    private RecurrenceSchedule recurrenceSchedule;
     private Timer clockTimer;
     
     
@@ -45,6 +194,17 @@ public class EnhancedTodoList extends JFrame {
     
     private Timer animationTimer;
     private int animationStep = 0;
+    
+    
+    static final StringTable STRINGS = new StringTable();
+    private static final int UPCOMING_DAYS = 7;
+    private static final int NEXT_UP_SIZE = 5;
+    private static final int PALETTE_RESULTS = 50;
+    private static final boolean STARTUP_BENCHMARK = Boolean.getBoolean("todo.startupBenchmark");
+    private static long launchedAt = System.currentTimeMillis();
+    private static final int UPCOMING_LIMIT = 500;
+    private static final int ARCHIVE_AGE_DAYS = Integer.getInteger("todo.archiveDays", TaskArchive.DEFAULT_AGE_DAYS);
+    private static final int ARCHIVE_SEARCH_LIMIT = 200;
 
     
     enum Priority {
@@ -81,9 +241,46 @@ public class EnhancedTodoList extends JFrame {
         @Override
         public String toString() { return display; }
     }
+    
+    enum TransferFormat {
+        CSV("csv"),
+        JSONL("jsonl");
+        
+        String extension;
+        TransferFormat(String extension) {
+            this.extension = extension;
+        }
+        
+        static TransferFormat forFile(File file) {
+            String name = file.getName().toLowerCase();
+            return name.endsWith(".csv") ? CSV : JSONL;
+        }
+    }
+
+    // when journal appends and snapshot saves reach the disk: on every write, grouped per interval, or left to the OS
+    enum FsyncPolicy {
+        ALWAYS,
+        BATCH,
+        OS;
+        
+        static final long BATCH_INTERVAL_MS = 100;
+        
+        static FsyncPolicy configured() {
+            try {
+                return valueOf(System.getProperty("todo.fsync", "batch").trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return BATCH;
+            }
+        }
+    }
 
     
     static class Task implements Serializable {
+        private static final long serialVersionUID = 805570881237352437L;
+        static final DateTimeFormatter CREATED_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
+        static final DateTimeFormatter DUE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+        
+        long id;
         String content;
         Priority priority;
         Category category;
@@ -91,35 +288,129 @@ public class EnhancedTodoList extends JFrame {
         String createdAt;
         String completedAt;
         String dueDate;
+        String recurrence;
+        String recurrenceFrom;
+        long parentId;
+        String tags;
+        private transient Recurrence rule;
         
         Task(String content, Priority priority, Category category) {
-            this.content = content;
+            this(content, priority, category, LocalDateTime.now().format(CREATED_FORMAT));
+        }
+        
+        Task(String content, Priority priority, Category category, String createdAt) {
+            this.id = newId();
+            this.content = STRINGS.intern(content);
             this.priority = priority;
             this.category = category;
             this.completed = false;
-            this.createdAt = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm"));
+            this.createdAt = createdAt;
             this.dueDate = "";
         }
         
+        static long newId() {
+            return ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        }
+        
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            if (id == 0) {
+                id = newId();
+            }
+            content = STRINGS.intern(content);
+            tags = STRINGS.intern(tags);
+        }
+        
+        Recurrence rule() {
+            if (recurrence == null) return null;
+            if (rule == null || !rule.text.equals(recurrence)) {
+                rule = Recurrence.parse(recurrence);
+            }
+            return rule;
+        }
+        
+        // the first occurrence not yet completed; may lie in the past when it is overdue
+        LocalDateTime nextOccurrence() {
+            Recurrence r = rule();
+            if (r == null) return null;
+            LocalDateTime from = recurrenceFrom != null
+                    ? LocalDateTime.parse(recurrenceFrom, CREATED_FORMAT) : LocalDateTime.now();
+            return r.next(from);
+        }
+        
+        // timestamps use CREATED_FORMAT; a bare due date counts as the end of that day
+        static LocalDateTime parseTime(String text) {
+            if (text == null || text.isEmpty()) return null;
+            try {
+                return LocalDateTime.parse(text, CREATED_FORMAT);
+            } catch (DateTimeParseException e) {
+                try {
+                    return LocalDate.parse(text, DUE_FORMAT).atTime(23, 59);
+                } catch (DateTimeParseException ignored) {
+                    return null;
+                }
+            }
+        }
+        
+        // lower case, '#' stripped, de-duplicated and sorted so equal tag sets share one string
+        static String normalizeTags(String text) {
+            if (text == null) return null;
+            Set<String> tags = new TreeSet<>();
+            for (String tag : text.toLowerCase().split("[\\s,]+")) {
+                tag = tag.startsWith("#") ? tag.substring(1) : tag;
+                if (!tag.isEmpty()) tags.add(tag);
+            }
+            return tags.isEmpty() ? null : STRINGS.intern(String.join(" ", tags));
+        }
+        
+        static String[] tagList(String tags) {
+            return tags == null ? new String[0] : tags.split(" ");
+        }
+        
+        static String describe(Priority priority, Category category, String content) {
+            return String.format("%s [%s] %s - %s", 
+                "", priority.display.split(" ")[1], category.display, content);
+        }
+        
         @Override
         public String toString() {
-            String status = completed ? "" : "";
-            return String.format("%s [%s] %s - %s", 
-                status, priority.display.split(" ")[1], category.display, content);
+            String text = describe(priority, category, content);
+            for (String tag : tagList(tags)) {
+                text += " #" + tag;
+            }
+            if (recurrence != null) {
+                LocalDateTime next = nextOccurrence();
+                text += " ↻ " + recurrence + (next != null ? ", next " + next.format(CREATED_FORMAT) : "");
+            }
+            return text;
         }
     }
 
     public EnhancedTodoList() {
+        this(false);
+    }
+
+    // fast start paints the window first and fills it in afterwards
+    EnhancedTodoList(boolean fastStart) {
         initializeComponents();
         setupLayout();
         setupEventListeners();
+        if (fastStart) {
+            setEditingEnabled(false);
+            startClock();
+            setVisible(true);
+            SwingUtilities.invokeLater(this::loadDataAsync);
+            return;
+        }
         setupContextMenu();
+        addHoverEffects();
         loadData();
         startClock();
         setVisible(true);
         
        
         startWelcomeAnimation();
+        markStartup("interactive");
     }
 
     private void initializeComponents() {
@@ -129,16 +420,52 @@ public class EnhancedTodoList extends JFrame {
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         
         
-        try {
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        
-        taskListModel = new DefaultListModel<>();
+        historyLog = new HistoryLog(historyFile.toPath());
+        taskService = new TaskService(tasksFile, journalFile, this::logHistory);
+        taskService.setErrorHandler(e -> JOptionPane.showMessageDialog(this, "Error syncing tasks: " + e.getMessage(),
+                "Sync Error", JOptionPane.ERROR_MESSAGE));
+        taskService.addListener((op, task, index, remote) -> {
+            if (remote) {
+                updateStats();
+            }
+        });
+        taskListModel = taskService.model;
+        recurrenceSchedule = new RecurrenceSchedule(taskService);
+        taskService.addListener(recurrenceSchedule);
+        nextUp = new NextUp(taskService);
+        taskService.addListener(nextUp);
+        taskService.addListener((op, task, index, remote) -> scheduleNextUpRefresh());
+        nextUpModel = new DefaultListModel<>();
+        nextUpList = new JList<>(nextUpModel);
+        nextUpList.setVisibleRowCount(NEXT_UP_SIZE);
         taskList = new JList<>(taskListModel);
         taskList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        taskList.setPrototypeCellValue(new Task("Prototype task with a reasonably long description",
+                Priority.MEDIUM, Category.PERSONAL));
+        taskTableModel = new TaskTableModel(taskListModel);
+        taskTable = new JTable(taskTableModel);
+        taskTree = new TaskTree(taskService);
+        taskService.addListener(taskTree);
+        tagIndex = new TagIndex(taskService);
+        taskService.addListener(tagIndex);
+        trigramIndex = new TrigramIndex(taskService);
+        taskService.addListener(trigramIndex);
+        caches.register("search", 0.5, trigramIndex);
+        rowCache = caches.cache("rows", 0.1, text -> 40 + text.length() * 2L);
+        taskService.addListener((op, task, index, remote) -> {
+            if (task == null) {
+                rowCache.clear();
+            } else {
+                rowCache.invalidate(task);
+            }
+        });
+        tagQueryField = new JTextField(14);
+        tagQueryField.setToolTipText("Select tasks by tag, e.g. work AND urgent AND NOT blocked");
+        tagMatchLabel = new JLabel();
+        treeView = new JTree(taskTree);
+        treeView.setRootVisible(false);
+        treeView.setShowsRootHandles(true);
+        treeView.setLargeModel(true);
         inputField = new JTextField();
         priorityCombo = new JComboBox<>(Priority.values());
         categoryCombo = new JComboBox<>(Category.values());
@@ -151,8 +478,35 @@ public class EnhancedTodoList extends JFrame {
         removeSelectedButton = new JButton(" Delete Multiple");
         doneButton = new JButton(" Complete");
         themeButton = new JButton(" Dark Mode");
+        importButton = new JButton(" Import");
+        exportButton = new JButton(" Export");
+        archiveButton = new JButton(" Archive");
+        viewButton = new JButton(" Table View");
+        analyticsButton = new JButton(" Analytics");
         
         historyArea = new JTextArea();
+        // only the newest history stays on screen; the log file keeps everything
+        caches.register("history", 0.4, new CacheManager.Resource() {
+            @Override
+            public long weight() {
+                return historyArea.getDocument().getLength() * 2L;
+            }
+            
+            @Override
+            public void shrink(long targetBytes) {
+                Document document = historyArea.getDocument();
+                int excess = document.getLength() - (int) (targetBytes / 2);
+                if (excess <= 0) return;
+                Element line = document.getDefaultRootElement();
+                int end = line.getElement(line.getElementIndex(excess)).getEndOffset();
+                try {
+                    document.remove(0, Math.min(end, document.getLength()));
+                } catch (BadLocationException e) {
+                    historyArea.setText("");
+                }
+            }
+        });
+        caches.watchMemory(SwingUtilities::invokeLater);
         progressBar = new JProgressBar();
         statsLabel = new JLabel(" Tasks: 0 | Completed: 0 | Pending: 0");
         timeLabel = new JLabel();
@@ -171,6 +525,16 @@ public class EnhancedTodoList extends JFrame {
         taskList.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
         taskList.setSelectionBackground(new Color(219, 234, 254));
         taskList.setCellRenderer(new TaskRenderer());
+        taskTable.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        taskTable.setRowHeight(24);
+        taskTable.setSelectionBackground(new Color(219, 234, 254));
+        taskTable.setDefaultRenderer(Object.class, new TaskCellRenderer());
+        taskTable.getTableHeader().setReorderingAllowed(false);
+        treeView.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        treeView.setRowHeight(24);
+        treeView.setCellRenderer(new TaskTreeRenderer());
+        nextUpList.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        nextUpList.setCellRenderer(new TaskRenderer());
         
        
         inputField.setFont(new Font("Segoe UI", Font.PLAIN, 14));
@@ -189,6 +553,9 @@ public class EnhancedTodoList extends JFrame {
         styleButton(removeCompletedButton, new Color(251, 146, 60));
         styleButton(removeSelectedButton, new Color(185, 28, 28));
         styleButton(themeButton, primaryColor);
+        styleButton(importButton, primaryColor);
+        styleButton(exportButton, primaryColor);
+        styleButton(archiveButton, primaryColor);
         
         
         historyArea.setFont(new Font("Consolas", Font.PLAIN, 12));
@@ -265,6 +632,13 @@ public class EnhancedTodoList extends JFrame {
         filterPanel.setBackground(secondaryColor);
         filterPanel.add(new JLabel("Filter:"));
         filterPanel.add(filterCombo);
+        filterPanel.add(importButton);
+        filterPanel.add(exportButton);
+        filterPanel.add(archiveButton);
+        filterPanel.add(viewButton);
+        filterPanel.add(new JLabel("Tags:"));
+        filterPanel.add(tagQueryField);
+        filterPanel.add(tagMatchLabel);
         
         
         taskScroll = new JScrollPane(taskList);
@@ -287,7 +661,18 @@ public class EnhancedTodoList extends JFrame {
         buttonPanel.add(removeAllButton);
         
         taskPanel.add(filterPanel, BorderLayout.NORTH);
-        taskPanel.add(taskScroll, BorderLayout.CENTER);
+        JScrollPane tableScroll = new JScrollPane(taskTable);
+        tableScroll.setBorder(createRoundedBorder());
+        customizeScrollBar(tableScroll);
+        
+        taskCards = new JPanel(new CardLayout());
+        taskCards.add(taskScroll, "list");
+        taskCards.add(tableScroll, "table");
+        JScrollPane treeScroll = new JScrollPane(treeView);
+        treeScroll.setBorder(createRoundedBorder());
+        customizeScrollBar(treeScroll);
+        taskCards.add(treeScroll, "tree");
+        taskPanel.add(taskCards, BorderLayout.CENTER);
         
         
         JPanel bottomSection = new JPanel(new BorderLayout(0, 10));
@@ -316,6 +701,14 @@ public class EnhancedTodoList extends JFrame {
         
         historyPanel.add(historyScroll, BorderLayout.CENTER);
         
+        JScrollPane nextUpScroll = new JScrollPane(nextUpList);
+        nextUpScroll.setBorder(BorderFactory.createTitledBorder(
+            createRoundedBorder(), " Next Up",
+            TitledBorder.LEFT, TitledBorder.TOP,
+            new Font("Segoe UI", Font.BOLD, 13), primaryColor));
+        historyPanel.add(nextUpScroll, BorderLayout.NORTH);
+        historyPanel.add(analyticsButton, BorderLayout.SOUTH);
+        
         
         historyPanel.setBorder(BorderFactory.createTitledBorder(
             createRoundedBorder(), " Activity History", 
@@ -352,28 +745,43 @@ public class EnhancedTodoList extends JFrame {
         JMenuItem completeItem = new JMenuItem(" Mark Complete");
         JMenuItem editItem = new JMenuItem(" Edit Task");
         JMenuItem duplicateItem = new JMenuItem(" Duplicate Task");
+        JMenuItem subtaskItem = new JMenuItem(" Add Subtask...");
+        JMenuItem tagsItem = new JMenuItem(" Tags...");
         JMenuItem moveUpItem = new JMenuItem(" Move Up");
         JMenuItem moveDownItem = new JMenuItem(" Move Down");
+        JMenuItem repeatItem = new JMenuItem(" Repeat...");
+        JMenuItem upcomingItem = new JMenuItem(" Upcoming...");
         
         
         deleteItem.addActionListener(e -> removeSelectedTasks());
         completeItem.addActionListener(e -> markDone());
         editItem.addActionListener(e -> editSelectedTask());
         duplicateItem.addActionListener(e -> duplicateSelectedTask());
+        subtaskItem.addActionListener(e -> addSubtask());
+        tagsItem.addActionListener(e -> editTags());
         moveUpItem.addActionListener(e -> moveTaskUp());
         moveDownItem.addActionListener(e -> moveTaskDown());
+        repeatItem.addActionListener(e -> repeatSelectedTask());
+        upcomingItem.addActionListener(e -> showUpcoming());
         
         contextMenu.add(completeItem);
         contextMenu.add(editItem);
         contextMenu.addSeparator();
         contextMenu.add(duplicateItem);
+        contextMenu.add(subtaskItem);
+        contextMenu.add(tagsItem);
         contextMenu.add(moveUpItem);
         contextMenu.add(moveDownItem);
         contextMenu.addSeparator();
+        contextMenu.add(repeatItem);
+        contextMenu.add(upcomingItem);
+        contextMenu.addSeparator();
         contextMenu.add(deleteItem);
         
         
         taskList.setComponentPopupMenu(contextMenu);
+        taskTable.setComponentPopupMenu(contextMenu);
+        treeView.setComponentPopupMenu(contextMenu);
     }
 
     private void setupEventListeners() {
@@ -384,6 +792,12 @@ public class EnhancedTodoList extends JFrame {
         removeCompletedButton.addActionListener(e -> removeCompletedTasks());
         doneButton.addActionListener(e -> markDone());
         themeButton.addActionListener(e -> toggleTheme());
+        importButton.addActionListener(e -> importTasks());
+        exportButton.addActionListener(e -> exportTasks());
+        archiveButton.addActionListener(e -> showArchive());
+        viewButton.addActionListener(e -> cycleTaskView());
+        analyticsButton.addActionListener(e -> showAnalytics());
+        tagQueryField.addActionListener(e -> selectByTags());
         
         
         filterCombo.addActionListener(e -> applyFilter());
@@ -405,6 +819,60 @@ public class EnhancedTodoList extends JFrame {
         });
         
         
+        // the table drives the list selection, so every action keeps working on list indices
+        taskTable.getSelectionModel().addListSelectionListener(e -> {
+            if (e.getValueIsAdjusting() || !taskView.equals("table")) return;
+            int[] rows = taskTable.getSelectedRows();
+            int[] indices = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                indices[i] = taskTableModel.modelIndex(rows[i]);
+            }
+            taskList.setSelectedIndices(indices);
+        });
+        
+        taskTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = taskTable.columnAtPoint(e.getPoint());
+                if (column == -1) return;
+                taskTableModel.sortBy(taskTable.convertColumnIndexToModel(column));
+                for (int i = 0; i < taskTable.getColumnCount(); i++) {
+                    TableColumn tableColumn = taskTable.getColumnModel().getColumn(i);
+                    tableColumn.setHeaderValue(taskTableModel.getColumnName(tableColumn.getModelIndex()));
+                }
+                taskTable.getTableHeader().repaint();
+            }
+        });
+        
+        treeView.addTreeSelectionListener(e -> {
+            if (!taskView.equals("tree")) return;
+            TreePath[] paths = treeView.getSelectionPaths();
+            java.util.List<Integer> indices = new ArrayList<>();
+            for (TreePath path : paths != null ? paths : new TreePath[0]) {
+                int index = taskListModel.indexOf(path.getLastPathComponent());
+                if (index != -1) indices.add(index);
+            }
+            taskList.setSelectedIndices(indices.stream().mapToInt(Integer::intValue).toArray());
+        });
+        
+        taskTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    editSelectedTask();
+                }
+            }
+        });
+        
+        nextUpList.addListSelectionListener(e -> {
+            Task task = nextUpList.getSelectedValue();
+            int index = task != null ? taskListModel.indexOf(task) : -1;
+            if (!e.getValueIsAdjusting() && index != -1) {
+                taskList.setSelectedIndex(index);
+                taskList.ensureIndexIsVisible(index);
+            }
+        });
+        
         setupKeyboardShortcuts();
         
         
@@ -415,9 +883,6 @@ public class EnhancedTodoList extends JFrame {
                 System.exit(0);
             }
         });
-        
-        
-        addHoverEffects();
     }
 
     private void setupKeyboardShortcuts() {
@@ -444,6 +909,177 @@ public class EnhancedTodoList extends JFrame {
                 }
             }
         });
+        
+        // window-wide, so the palette opens whichever component has focus
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_K, InputEvent.CTRL_DOWN_MASK), "commandPalette");
+        getRootPane().getActionMap().put("commandPalette", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showCommandPalette();
+            }
+        });
+    }
+
+    private Map<String, Runnable> paletteCommands() {
+        Map<String, Runnable> commands = new LinkedHashMap<>();
+        commands.put(" Add Task", () -> inputField.requestFocusInWindow());
+        commands.put(" Mark Complete", this::markDone);
+        commands.put(" Edit Task", this::editSelectedTask);
+        commands.put(" Delete Task", this::removeSelectedTasks);
+        commands.put(" Duplicate Task", this::duplicateSelectedTask);
+        commands.put(" Add Subtask...", this::addSubtask);
+        commands.put(" Tags...", this::editTags);
+        commands.put(" Select by Tags", () -> tagQueryField.requestFocusInWindow());
+        commands.put(" Move Up", this::moveTaskUp);
+        commands.put(" Move Down", this::moveTaskDown);
+        commands.put(" Repeat...", this::repeatSelectedTask);
+        commands.put(" Upcoming...", this::showUpcoming);
+        commands.put(" Clear Completed", this::removeCompletedTasks);
+        commands.put(" Clear All", this::removeAllTasks);
+        commands.put(" List View", () -> showTaskView("list"));
+        commands.put(" Table View", () -> showTaskView("table"));
+        commands.put(" Tree View", () -> showTaskView("tree"));
+        commands.put(" Toggle Theme", this::toggleTheme);
+        commands.put(" Import...", this::importTasks);
+        commands.put(" Export...", this::exportTasks);
+        commands.put(" Archive...", this::showArchive);
+        commands.put(" Analytics...", this::showAnalytics);
+        return commands;
+    }
+
+    // Ctrl+K: commands and tasks matched as you type; scoring runs on one background thread and
+    // every keystroke supersedes the query before it, so stale work stops at its next check
+    private void showCommandPalette() {
+        if (paletteExecutor == null) {
+            paletteExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "command-palette");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        Map<String, Runnable> commands = paletteCommands();
+        JDialog dialog = new JDialog(this, " Command Palette", true);
+        JTextField queryField = new JTextField(40);
+        DefaultListModel<Object> resultModel = new DefaultListModel<>();
+        JList<Object> results = new JList<>(resultModel);
+        JLabel status = new JLabel(" ");
+        AtomicLong generation = new AtomicLong();
+        
+        results.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                String text = value instanceof Task ? " " + value : " ▸" + value;
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        
+        Runnable search = () -> {
+            String query = queryField.getText();
+            long mine = generation.incrementAndGet();
+            paletteExecutor.execute(() -> {
+                if (generation.get() != mine) return;
+                long start = System.nanoTime();
+                String q = query.trim().toLowerCase();
+                java.util.List<String> names = new ArrayList<>();
+                for (String name : commands.keySet()) {
+                    if (q.isEmpty() || TrigramIndex.isSubsequence(q, name.toLowerCase())) names.add(name);
+                }
+                names.sort(Comparator.comparingDouble(name -> -TrigramIndex.score(q, " " + name.trim().toLowerCase() + " ", 0)));
+                java.util.List<TrigramIndex.Match> matches = q.isEmpty() ? Collections.emptyList()
+                        : trigramIndex.search(q, PALETTE_RESULTS, () -> generation.get() != mine);
+                caches.enforce("search");
+                if (matches == null) return;
+                double elapsed = (System.nanoTime() - start) / 1e6;
+                SwingUtilities.invokeLater(() -> {
+                    if (generation.get() != mine) return;
+                    resultModel.clear();
+                    for (String name : names) {
+                        resultModel.addElement(name);
+                    }
+                    for (TrigramIndex.Match match : matches) {
+                        resultModel.addElement(match.task);
+                    }
+                    if (!resultModel.isEmpty()) {
+                        results.setSelectedIndex(0);
+                    }
+                    status.setText(String.format(" %d commands, %d tasks (%.1f ms)", names.size(), matches.size(), elapsed));
+                });
+            });
+        };
+        
+        Runnable choose = () -> {
+            Object chosen = results.getSelectedValue();
+            if (chosen == null) return;
+            generation.incrementAndGet();
+            dialog.dispose();
+            if (chosen instanceof Task) {
+                int index = taskListModel.indexOf(chosen);
+                if (index == -1) return;
+                if (!taskView.equals("list")) {
+                    showTaskView("list");
+                }
+                taskList.setSelectedIndex(index);
+                taskList.ensureIndexIsVisible(index);
+                taskList.requestFocusInWindow();
+            } else {
+                commands.get(chosen).run();
+            }
+        };
+        
+        queryField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search.run();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search.run();
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search.run();
+            }
+        });
+        queryField.addActionListener(e -> choose.run());
+        queryField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int index = results.getSelectedIndex();
+                if (e.getKeyCode() == KeyEvent.VK_DOWN && index + 1 < resultModel.getSize()) {
+                    results.setSelectedIndex(index + 1);
+                    results.ensureIndexIsVisible(index + 1);
+                } else if (e.getKeyCode() == KeyEvent.VK_UP && index > 0) {
+                    results.setSelectedIndex(index - 1);
+                    results.ensureIndexIsVisible(index - 1);
+                } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    generation.incrementAndGet();
+                    dialog.dispose();
+                }
+            }
+        });
+        results.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    choose.run();
+                }
+            }
+        });
+        
+        JPanel top = new JPanel(new BorderLayout());
+        top.setBorder(BorderFactory.createEmptyBorder(10, 10, 5, 10));
+        top.add(queryField, BorderLayout.CENTER);
+        dialog.add(top, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(results), BorderLayout.CENTER);
+        dialog.add(status, BorderLayout.SOUTH);
+        search.run();
+        dialog.setSize(560, 420);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
     }
 
     private void addTask() {
@@ -452,10 +1088,8 @@ public class EnhancedTodoList extends JFrame {
             Priority priority = (Priority) priorityCombo.getSelectedItem();
             Category category = (Category) categoryCombo.getSelectedItem();
             
-            Task task = new Task(text, priority, category);
-            taskListModel.addElement(task);
-            
-            logHistory(" ADDED", task.toString(), getCurrentTime());
+            taskService.sync();
+            taskService.add(text, priority, category);
             inputField.setText("");
             updateStats();
             saveData();
@@ -481,11 +1115,15 @@ public class EnhancedTodoList extends JFrame {
                 "Confirm Deletion", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
         
         if (choice == JOptionPane.YES_OPTION) {
-            
-            for (int i = selectedIndices.length - 1; i >= 0; i--) {
-                Task task = taskListModel.getElementAt(selectedIndices[i]);
-                taskListModel.remove(selectedIndices[i]);
-                logHistory(" REMOVED", task.toString(), getCurrentTime());
+            // other instances' changes are applied first and may have moved the selected tasks
+            java.util.List<Task> selected = new ArrayList<>();
+            for (int index : selectedIndices) {
+                selected.add(taskListModel.getElementAt(index));
+            }
+            taskService.sync();
+            int[] current = selected.stream().mapToInt(taskListModel::indexOf).filter(i -> i >= 0).sorted().toArray();
+            for (int i = current.length - 1; i >= 0; i--) {
+                taskService.remove(current[i]);
             }
             
             updateStats();
@@ -506,9 +1144,8 @@ public class EnhancedTodoList extends JFrame {
                 "Clear All Tasks", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
         
         if (choice == JOptionPane.YES_OPTION) {
-            int taskCount = taskListModel.getSize();
-            taskListModel.clear();
-            logHistory("🧹 CLEARED ALL", taskCount + " tasks removed", getCurrentTime());
+            taskService.sync();
+            taskService.clearAll();
             updateStats();
             saveData();
             animateTaskRemoval();
@@ -535,14 +1172,8 @@ public class EnhancedTodoList extends JFrame {
                 "Clear Completed", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
         
         if (choice == JOptionPane.YES_OPTION) {
-            
-            for (int i = completedIndices.size() - 1; i >= 0; i--) {
-                int index = completedIndices.get(i);
-                Task task = taskListModel.getElementAt(index);
-                taskListModel.remove(index);
-                logHistory(" CLEARED COMPLETED", task.toString(), getCurrentTime());
-            }
-            
+            taskService.sync();
+            taskService.clearCompleted();
             updateStats();
             saveData();
             animateTaskRemoval();
@@ -553,74 +1184,324 @@ public class EnhancedTodoList extends JFrame {
         int index = taskList.getSelectedIndex();
         if (index != -1) {
             Task task = taskListModel.getElementAt(index);
-            String newContent = JOptionPane.showInputDialog(this, 
-                    "Edit task:", "Edit Task", JOptionPane.PLAIN_MESSAGE, null, null, task.content)
-                    .toString();
+            Object input = JOptionPane.showInputDialog(this, 
+                    "Edit task:", "Edit Task", JOptionPane.PLAIN_MESSAGE, null, null, task.content);
+            if (input == null) return;
+            String newContent = input.toString();
             
-            if (newContent != null && !newContent.trim().isEmpty()) {
-                String oldContent = task.content;
-                task.content = newContent.trim();
-                taskList.repaint();
-                logHistory(" EDITED", "'" + oldContent + "' → '" + task.content + "'", getCurrentTime());
+            taskService.sync();
+            index = taskListModel.indexOf(task);
+            if (index != -1 && !newContent.trim().isEmpty()) {
+                taskService.edit(index, newContent.trim());
                 saveData();
             }
         }
     }
 
+    private void editTags() {
+        int index = taskList.getSelectedIndex();
+        if (index == -1) return;
+        
+        Task task = taskListModel.getElementAt(index);
+        Set<String> known = tagIndex.tags();
+        Object input = JOptionPane.showInputDialog(this,
+                "Tags, separated by spaces or commas (empty to clear):"
+                + (known.isEmpty() ? "" : "\nIn use: " + String.join(" ", known)),
+                "Tags", JOptionPane.PLAIN_MESSAGE, null, null, task.tags != null ? task.tags : "");
+        if (input == null) return;
+        
+        taskService.sync();
+        index = taskListModel.indexOf(task);
+        if (index == -1) return;
+        taskService.setTags(index, input.toString());
+        saveData();
+    }
+
+    // the query itself is a few bitmap operations; selecting the rows is a single pass over the list
+    private void selectByTags() {
+        String query = tagQueryField.getText().trim();
+        if (query.isEmpty()) {
+            tagMatchLabel.setText("");
+            return;
+        }
+        long start = System.nanoTime();
+        Bitmap matches;
+        try {
+            matches = tagIndex.query(query);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Invalid tag query: " + e.getMessage(),
+                    "Tags", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e6;
+        int count = matches.cardinality();
+        tagMatchLabel.setText(String.format("%d match (%.1f ms)", count, elapsed));
+        
+        int[] indices = new int[count];
+        int n = 0;
+        for (int i = 0; i < taskListModel.getSize() && n < count; i++) {
+            Integer slot = tagIndex.slot(taskListModel.getElementAt(i));
+            if (slot != null && matches.contains(slot)) {
+                indices[n++] = i;
+            }
+        }
+        if (!taskView.equals("list")) {
+            showTaskView("list");
+        }
+        taskList.setSelectedIndices(Arrays.copyOf(indices, n));
+        if (n > 0) {
+            taskList.ensureIndexIsVisible(indices[0]);
+        }
+    }
+
+    private void addSubtask() {
+        int index = taskList.getSelectedIndex();
+        if (index == -1) return;
+        
+        Task parent = taskListModel.getElementAt(index);
+        String content = JOptionPane.showInputDialog(this, "Subtask of \"" + parent.content + "\":",
+                "Add Subtask", JOptionPane.PLAIN_MESSAGE);
+        if (content == null || content.trim().isEmpty()) return;
+        
+        taskService.sync();
+        if (taskListModel.indexOf(parent) == -1) return;
+        taskService.addSubtask(parent, content.trim(), parent.priority, parent.category);
+        updateStats();
+        saveData();
+        if (taskView.equals("tree")) {
+            treeView.expandPath(treePath(parent));
+        }
+    }
+
+    private TreePath treePath(Task task) {
+        java.util.List<Object> path = new ArrayList<>();
+        for (Task up = task; up != null; up = taskTree.parentOf(up)) {
+            path.add(0, up);
+        }
+        path.add(0, TaskTree.ROOT);
+        return new TreePath(path.toArray());
+    }
+
     private void duplicateSelectedTask() {
+        taskService.sync();
         int index = taskList.getSelectedIndex();
         if (index != -1) {
-            Task originalTask = taskListModel.getElementAt(index);
-            Task duplicateTask = new Task("Copy of " + originalTask.content, 
-                    originalTask.priority, originalTask.category);
-            taskListModel.addElement(duplicateTask);
-            logHistory(" DUPLICATED", duplicateTask.toString(), getCurrentTime());
+            taskService.duplicate(index);
             updateStats();
             saveData();
         }
     }
 
     private void moveTaskUp() {
+        taskService.sync();
         int index = taskList.getSelectedIndex();
         if (index > 0) {
-            Task task = taskListModel.remove(index);
-            taskListModel.add(index - 1, task);
+            taskService.move(index, index - 1);
             taskList.setSelectedIndex(index - 1);
-            logHistory(" MOVED UP", task.toString(), getCurrentTime());
             saveData();
         }
     }
 
     private void moveTaskDown() {
+        taskService.sync();
         int index = taskList.getSelectedIndex();
         if (index >= 0 && index < taskListModel.getSize() - 1) {
-            Task task = taskListModel.remove(index);
-            taskListModel.add(index + 1, task);
+            taskService.move(index, index + 1);
             taskList.setSelectedIndex(index + 1);
-            logHistory(" MOVED DOWN", task.toString(), getCurrentTime());
             saveData();
         }
     }
 
+    private void repeatSelectedTask() {
+        int index = taskList.getSelectedIndex();
+        if (index == -1) return;
+        
+        Task task = taskListModel.getElementAt(index);
+        Object input = JOptionPane.showInputDialog(this,
+                "Repeat rule (empty to stop repeating):\n"
+                + "daily 09:00, weekdays 08:30, weekly mon,thu 18:00, monthly 1 10:00\n"
+                + "or cron: minute hour day month weekday, e.g. 0 9 * * 1-5",
+                "Repeat Task", JOptionPane.PLAIN_MESSAGE, null, null,
+                task.recurrence != null ? task.recurrence : "daily 09:00");
+        if (input == null) return;
+        
+        taskService.sync();
+        index = taskListModel.indexOf(task);
+        if (index == -1) return;
+        try {
+            taskService.setRecurrence(index, input.toString());
+            saveData();
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Invalid repeat rule: " + e.getMessage(),
+                    "Repeat Task", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void showUpcoming() {
+        LocalDateTime now = LocalDateTime.now();
+        DefaultListModel<String> upcoming = new DefaultListModel<>();
+        recurrenceSchedule.window(now, now.plusDays(UPCOMING_DAYS))
+                .limit(UPCOMING_LIMIT)
+                .forEach(o -> upcoming.addElement(o.time.format(Task.CREATED_FORMAT) + "  " + o.task.content));
+        if (upcoming.isEmpty()) {
+            upcoming.addElement("No repeating tasks in the next " + UPCOMING_DAYS + " days");
+        }
+        
+        JList<String> list = new JList<>(upcoming);
+        list.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        JScrollPane scroll = new JScrollPane(list);
+        scroll.setPreferredSize(new Dimension(420, 300));
+        JOptionPane.showMessageDialog(this, scroll, " Upcoming (" + UPCOMING_DAYS + " days)",
+                JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private void cycleTaskView() {
+        showTaskView(taskView.equals("list") ? "table" : taskView.equals("table") ? "tree" : "list");
+    }
+
+    private void showTaskView(String view) {
+        taskView = view;
+        taskList.clearSelection();
+        taskTable.clearSelection();
+        treeView.clearSelection();
+        ((CardLayout) taskCards.getLayout()).show(taskCards, taskView);
+        viewButton.setText(taskView.equals("list") ? " Table View" : taskView.equals("table") ? " Tree View" : " List View");
+    }
+
+    // bulk changes fire once per task; the panel is refreshed once per burst
+    private void scheduleNextUpRefresh() {
+        if (nextUpPending) return;
+        nextUpPending = true;
+        SwingUtilities.invokeLater(() -> {
+            nextUpPending = false;
+            nextUpModel.clear();
+            for (Task task : nextUp.top(NEXT_UP_SIZE)) {
+                nextUpModel.addElement(task);
+            }
+        });
+    }
+
     private void markDone() {
+        taskService.sync();
         int[] selectedIndices = taskList.getSelectedIndices();
         if (selectedIndices.length == 0) return;
         
         for (int index : selectedIndices) {
-            Task task = taskListModel.getElementAt(index);
-            if (!task.completed) {
-                task.completed = true;
-                task.completedAt = getCurrentTime();
-                logHistory(" COMPLETED", task.toString(), getCurrentTime());
-            }
+            taskService.complete(index);
         }
         
-        taskList.repaint();
+        
         updateStats();
         saveData();
         animateTaskCompletion();
     }
 
+    private void importTasks() {
+        JFileChooser chooser = createTransferChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        File file = chooser.getSelectedFile();
+        TransferFormat format = TransferFormat.forFile(file);
+        SwingWorker<TaskTransfer.Result, Void> worker = new SwingWorker<TaskTransfer.Result, Void>() {
+            @Override
+            protected TaskTransfer.Result doInBackground() throws Exception {
+                return TaskTransfer.importTasks(file.toPath(), format,
+                        batch -> SwingUtilities.invokeLater(() -> addTasksBulk(batch)),
+                        (done, total) -> setProgress(total > 0 ? (int) (done * 100 / total) : 100));
+            }
+            
+            @Override
+            protected void done() {
+                finishTransfer(this, " IMPORTED", file);
+            }
+        };
+        startTransfer(worker, " Importing");
+    }
+
+    private void exportTasks() {
+        JFileChooser chooser = createTransferChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        File selected = chooser.getSelectedFile();
+        if (!selected.getName().contains(".")) {
+            String extension = chooser.getFileFilter() instanceof FileNameExtensionFilter
+                    ? ((FileNameExtensionFilter) chooser.getFileFilter()).getExtensions()[0]
+                    : TransferFormat.JSONL.extension;
+            selected = new File(selected.getParentFile(), selected.getName() + "." + extension);
+        }
+        File file = selected;
+        TransferFormat format = TransferFormat.forFile(file);
+        
+        java.util.List<Task> snapshot = new ArrayList<>(taskListModel.getSize());
+        for (int i = 0; i < taskListModel.getSize(); i++) {
+            snapshot.add(taskListModel.getElementAt(i));
+        }
+        
+        SwingWorker<TaskTransfer.Result, Void> worker = new SwingWorker<TaskTransfer.Result, Void>() {
+            @Override
+            protected TaskTransfer.Result doInBackground() throws Exception {
+                return TaskTransfer.exportTasks(snapshot, file.toPath(), format,
+                        (done, total) -> setProgress(total > 0 ? (int) (done * 100 / total) : 100));
+            }
+            
+            @Override
+            protected void done() {
+                finishTransfer(this, " EXPORTED", file);
+            }
+        };
+        startTransfer(worker, " Exporting");
+    }
+
+    private JFileChooser createTransferChooser() {
+        JFileChooser chooser = new JFileChooser(new File("."));
+        chooser.addChoosableFileFilter(new FileNameExtensionFilter("JSON Lines (*.jsonl)", "jsonl"));
+        chooser.addChoosableFileFilter(new FileNameExtensionFilter("CSV (*.csv)", "csv"));
+        return chooser;
+    }
+
+    private void startTransfer(SwingWorker<TaskTransfer.Result, Void> worker, String label) {
+        importButton.setEnabled(false);
+        exportButton.setEnabled(false);
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                statsLabel.setText(label + "... " + worker.getProgress() + "%");
+            }
+        });
+        worker.execute();
+    }
+
+    private void finishTransfer(SwingWorker<TaskTransfer.Result, Void> worker, String action, File file) {
+        importButton.setEnabled(true);
+        exportButton.setEnabled(true);
+        boolean imported = action.equals(" IMPORTED");
+        try {
+            TaskTransfer.Result result = worker.get();
+            String detail = result.rows + " tasks, " + file.getName();
+            if (result.skipped > 0) {
+                detail += " (" + result.skipped + " malformed rows skipped)";
+            }
+            logHistory(HistoryLog.text(action, detail));
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (imported) {
+                logHistory(HistoryLog.text(" IMPORT FAILED", file.getName() + ": " + cause.getMessage()));
+            }
+            JOptionPane.showMessageDialog(this, "Transfer failed: " + cause.getMessage(),
+                    "Transfer Error", JOptionPane.ERROR_MESSAGE);
+        } finally {
+            // batches added before a failed import stay in the list, so they are saved and announced as well
+            saveData();
+            if (imported) {
+                taskService.announceBulkChange();
+            }
+        }
+        updateStats();
+    }
+
+    private void addTasksBulk(java.util.List<Task> tasks) {
+        taskService.addAll(tasks);
+    }
+
     private void toggleTheme() {
         isDarkTheme = !isDarkTheme;
         applyTheme();
@@ -671,14 +1552,8 @@ public class EnhancedTodoList extends JFrame {
     }
 
     private void updateStats() {
-        int total = taskListModel.getSize();
-        int completed = 0;
-        
-        for (int i = 0; i < total; i++) {
-            if (taskListModel.getElementAt(i).completed) {
-                completed++;
-            }
-        }
+        int total = taskTree.total();
+        int completed = taskTree.done();
         
         int pending = total - completed;
         statsLabel.setText(String.format(" Tasks: %d | Completed: %d | Pending: %d", 
@@ -716,8 +1591,13 @@ public class EnhancedTodoList extends JFrame {
 
     private void startClock() {
         clockTimer = new Timer(1000, e -> {
-            timeLabel.setText(" " + LocalDateTime.now()
+            LocalDateTime now = LocalDateTime.now();
+            timeLabel.setText(" " + now
                 .format(DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss")));
+            for (RecurrenceSchedule.Occurrence due : recurrenceSchedule.pollDue(now)) {
+                logHistory(HistoryLog.task(" DUE", due.task, due.time.format(Task.CREATED_FORMAT)));
+                taskList.repaint();
+            }
         });
         clockTimer.start();
     }
@@ -792,77 +1672,342 @@ public class EnhancedTodoList extends JFrame {
         fadeTimer.start();
     }
 
-    private void logHistory(String action, String content, String time) {
-        String logEntry = String.format("[%s] %s: %s\n", time, action, content);
-        historyArea.append(logEntry);
+    private void logHistory(HistoryLog.Entry entry) {
+        historyArea.append(HistoryLog.render(entry) + "\n");
+        caches.enforce("history");
         historyArea.setCaretPosition(historyArea.getDocument().getLength());
-        saveHistory();
-    }
-
-    private String getCurrentTime() {
-        return formatter.format(new Date());
+        analytics.record(entry);
+        try {
+            historyLog.append(entry);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error saving history: " + e.getMessage(),
+                    "Save Error", JOptionPane.ERROR_MESSAGE);
+        }
     }
 
     private void saveData() {
         saveTasks();
-        saveHistory();
     }
 
     private void saveTasks() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tasksFile))) {
-            java.util.List<Task> tasks = new ArrayList<>();
-            for (int i = 0; i < taskListModel.getSize(); i++) {
-                tasks.add(taskListModel.getElementAt(i));
-            }
-            oos.writeObject(tasks);
+        try {
+            taskService.save();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Error saving tasks: " + e.getMessage(),
                     "Save Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    private void saveHistory() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(historyFile))) {
-            writer.print(historyArea.getText());
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error saving history: " + e.getMessage(),
-                    "Save Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-
-    @SuppressWarnings("unchecked")
     private void loadData() {
+        openJournal();
         loadTasks();
         loadHistory();
         updateStats();
+        openArchive();
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadTasks() {
-        if (!tasksFile.exists()) return;
-        
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(tasksFile))) {
-            java.util.List<Task> tasks = (java.util.List<Task>) ois.readObject();
-            taskListModel.clear();
-            for (Task task : tasks) {
-                taskListModel.addElement(task);
+    // history and the task snapshot are read together off the EDT, then installed in one go
+    private void loadDataAsync() {
+        addHoverEffects();
+        taskService.beginLoad();
+        openJournal();
+        new SwingWorker<TaskService.Snapshot, Void>() {
+            private String history;
+            private Analytics scanned;
+            
+            @Override
+            protected TaskService.Snapshot doInBackground() throws Exception {
+                TaskService.Snapshot snapshot = taskService.read();
+                historyLog.load();
+                history = HistoryLog.renderTail(historyLog.entries(), caches.budget("history") / 2);
+                scanned = Analytics.scan(historyLog.entries());
+                historyLog.release();
+                return snapshot;
+            }
+            
+            @Override
+            protected void done() {
+                TaskService.Snapshot snapshot = null;
+                try {
+                    snapshot = get();
+                    historyArea.setText(history);
+                    analytics = scanned;
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(EnhancedTodoList.this, "Error loading tasks: " + cause.getMessage(),
+                            "Load Error", JOptionPane.ERROR_MESSAGE);
+                }
+                taskService.install(snapshot);
+                updateStats();
+                openArchive();
+                setupContextMenu();
+                setEditingEnabled(true);
+                inputField.requestFocusInWindow();
+                startWelcomeAnimation();
+                markStartup("interactive");
             }
-        } catch (IOException | ClassNotFoundException e) {
+        }.execute();
+    }
+
+    // everything that changes tasks stays off until the snapshot is installed, or it would act on an empty list
+    private void setEditingEnabled(boolean enabled) {
+        for (JComponent component : new JComponent[] {inputField, addButton, removeButton, removeAllButton,
+                removeCompletedButton, removeSelectedButton, doneButton, importButton, archiveButton,
+                taskList, taskTable, treeView, nextUpList, tagQueryField}) {
+            component.setEnabled(enabled);
+        }
+        getRootPane().getActionMap().get("commandPalette").setEnabled(enabled);
+        if (enabled) {
+            updateButtonStates();
+        }
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            markStartup("first paint");
+        }
+    }
+
+    // with -Dtodo.startupBenchmark=true, prints milestones since JVM launch and exits once interactive
+    private void markStartup(String milestone) {
+        if (!STARTUP_BENCHMARK) return;
+        System.out.printf("startup %s: %d ms%n", milestone, System.currentTimeMillis() - launchedAt);
+        if (milestone.equals("interactive")) {
+            SwingUtilities.invokeLater(() -> System.exit(0));
+        }
+    }
+
+    private void loadTasks() {
+        try {
+            taskService.load();
+        } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Error loading tasks: " + e.getMessage(),
                     "Load Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    private void loadHistory() {
-        if (!historyFile.exists()) return;
+    private void openArchive() {
+        try {
+            archive = new TaskArchive(archiveDir.toPath());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error opening archive, completed tasks will not be archived: "
+                    + e.getMessage(), "Archive Error", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        archiveOldTasks();
+        archiveTimer = new Timer(60 * 60 * 1000, e -> archiveOldTasks());
+        archiveTimer.start();
+    }
+
+    private void archiveOldTasks() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(ARCHIVE_AGE_DAYS);
+        java.util.List<Task> candidates = new ArrayList<>();
+        for (int i = 0; i < taskListModel.getSize(); i++) {
+            Task task = taskListModel.getElementAt(i);
+            if (TaskArchive.isArchivable(task, cutoff)) {
+                candidates.add(task);
+            }
+        }
+        if (candidates.isEmpty()) return;
+        
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                archive.append(candidates);
+                return null;
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    taskService.removeArchived(candidates);
+                    updateStats();
+                    saveData();
+                    taskService.announceBulkChange();
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(EnhancedTodoList.this, "Error archiving tasks: " + cause.getMessage(),
+                            "Archive Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private void showAnalytics() {
+        JDialog dialog = new JDialog(this, " Analytics", true);
+        JComboBox<String> range = new JComboBox<>(new String[]{"Last 30 days", "Last 90 days", "Last year", "All time"});
+        JLabel summary = new JLabel();
+        AnalyticsChart chart = new AnalyticsChart();
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(historyFile))) {
-            StringBuilder content = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
+        Runnable refresh = () -> {
+            long today = LocalDate.now().toEpochDay();
+            int index = range.getSelectedIndex();
+            long from = index == 0 ? today - 29 : index == 1 ? today - 89 : index == 2 ? today - 364 : analytics.firstDay();
+            long span = today - from + 1;
+            int width = span <= 90 ? 1 : span <= 730 ? 7 : 30;
+            long[] completed = analytics.series(Analytics.COMPLETED, from, today, width);
+            long[] backlog = analytics.backlog(from, today, width);
+            long[] cycleCount = analytics.series(Analytics.CYCLE_COUNT, from, today, width);
+            long[] cycleMinutes = analytics.series(Analytics.CYCLE_MINUTES, from, today, width);
+            double[] cycleDays = new double[cycleCount.length];
+            for (int i = 0; i < cycleDays.length; i++) {
+                cycleDays[i] = cycleCount[i] == 0 ? 0 : cycleMinutes[i] / (double) cycleCount[i] / (24 * 60);
             }
-            historyArea.setText(content.toString());
+            String unit = width == 1 ? "day" : width == 7 ? "week" : "month";
+            chart.show(new String[] {"Completed per " + unit, "Open tasks", "Average cycle time (days)"},
+                    new double[][] {toDoubles(completed), toDoubles(backlog), cycleDays});
+            
+            long week = sum(analytics.series(Analytics.COMPLETED, today - 6, today, 1));
+            long cycles = sum(analytics.series(Analytics.CYCLE_COUNT, today - 29, today, 1));
+            long minutes = sum(analytics.series(Analytics.CYCLE_MINUTES, today - 29, today, 1));
+            summary.setText(String.format(" Completed in the last 7 days: %d | Avg cycle time (30 days): %s | Open now: %d",
+                    week, cycles == 0 ? "-" : String.format("%.1f days", minutes / (double) cycles / (24 * 60)),
+                    backlog[backlog.length - 1]));
+        };
+        range.addActionListener(e -> refresh.run());
+        refresh.run();
+        
+        JPanel top = new JPanel(new BorderLayout(10, 0));
+        top.setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10));
+        top.add(range, BorderLayout.WEST);
+        top.add(summary, BorderLayout.CENTER);
+        dialog.add(top, BorderLayout.NORTH);
+        dialog.add(chart, BorderLayout.CENTER);
+        dialog.setSize(760, 560);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    private static double[] toDoubles(long[] values) {
+        double[] out = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = values[i];
+        }
+        return out;
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    private void showArchive() {
+        if (archive == null) return;
+        
+        JDialog dialog = new JDialog(this, " Archive", true);
+        JTextField searchField = new JTextField();
+        searchField.setToolTipText("Whole words; a task must contain every word");
+        DefaultListModel<Task> results = new DefaultListModel<>();
+        JList<Task> resultList = new JList<>(results);
+        resultList.setCellRenderer(new TaskRenderer());
+        JLabel status = new JLabel(" " + archive.archivedCount() + " archived tasks, completed over "
+                + ARCHIVE_AGE_DAYS + " days ago");
+        JButton restoreButton = new JButton(" Restore");
+        styleButton(restoreButton, accentColor);
+        
+        Runnable search = () -> {
+            String query = searchField.getText();
+            status.setText(" Searching...");
+            new SwingWorker<java.util.List<Task>, Void>() {
+                @Override
+                protected java.util.List<Task> doInBackground() throws Exception {
+                    return archive.search(query, ARCHIVE_SEARCH_LIMIT);
+                }
+                
+                @Override
+                protected void done() {
+                    try {
+                        results.clear();
+                        results.addAll(get());
+                        status.setText(" " + results.size() + " matches");
+                    } catch (Exception e) {
+                        status.setText(" Search failed: " + e.getMessage());
+                    }
+                }
+            }.execute();
+        };
+        searchField.addActionListener(e -> search.run());
+        restoreButton.addActionListener(e -> {
+            java.util.List<Task> selected = resultList.getSelectedValuesList();
+            if (selected.isEmpty()) return;
+            restoreButton.setEnabled(false);
+            status.setText(" Restoring...");
+            // segments are decompressed on the worker; tasks taken before a failure are still restored
+            new SwingWorker<Void, Task[]>() {
+                @Override
+                protected Void doInBackground() throws Exception {
+                    for (Task wanted : selected) {
+                        Task task = archive.take(wanted.id);
+                        publish(new Task[] {wanted, task});
+                    }
+                    return null;
+                }
+                
+                @Override
+                protected void process(java.util.List<Task[]> taken) {
+                    for (Task[] pair : taken) {
+                        if (pair[1] != null) {
+                            taskService.restoreArchived(pair[1]);
+                        }
+                        results.removeElement(pair[0]);
+                    }
+                }
+                
+                @Override
+                protected void done() {
+                    restoreButton.setEnabled(true);
+                    status.setText(" " + results.size() + " matches");
+                    try {
+                        get();
+                    } catch (Exception ex) {
+                        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                        JOptionPane.showMessageDialog(dialog, "Error restoring task: " + cause.getMessage(),
+                                "Archive Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                    updateStats();
+                    saveData();
+                }
+            }.execute();
+        });
+        
+        JPanel panel = new JPanel(new BorderLayout(0, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        panel.add(searchField, BorderLayout.NORTH);
+        panel.add(new JScrollPane(resultList), BorderLayout.CENTER);
+        JPanel footer = new JPanel(new BorderLayout());
+        footer.add(status, BorderLayout.CENTER);
+        footer.add(restoreButton, BorderLayout.EAST);
+        panel.add(footer, BorderLayout.SOUTH);
+        
+        dialog.setContentPane(panel);
+        dialog.setSize(520, 420);
+        dialog.setLocationRelativeTo(this);
+        search.run();
+        dialog.setVisible(true);
+    }
+
+    private void openJournal() {
+        try {
+            taskService.openJournal();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error opening task journal, changes from other windows "
+                    + "will not be merged: " + e.getMessage(), "Journal Error", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    private void loadHistory() {
+        try {
+            historyLog.load();
+            historyArea.setText(HistoryLog.renderTail(historyLog.entries(), caches.budget("history") / 2));
+            analytics = Analytics.scan(historyLog.entries());
+            historyLog.release();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Error loading history: " + e.getMessage(),
                     "Load Error", JOptionPane.ERROR_MESSAGE);
@@ -907,7 +2052,11 @@ public class EnhancedTodoList extends JFrame {
         @Override
         public Component getListCellRendererComponent(JList<?> list, Object value,
                 int index, boolean isSelected, boolean cellHasFocus) {
-            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            Object text = value;
+            if (value instanceof Task) {
+                text = rowText((Task) value);
+            }
+            super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
             
             if (value instanceof Task) {
                 Task task = (Task) value;
@@ -921,11 +2070,130 @@ public class EnhancedTodoList extends JFrame {
                     setForeground(task.priority.color);
                     setFont(getFont().deriveFont(Font.BOLD));
                 }
-                
-                
-                if (task.completed) {
-                    setText("<html><strike>" + task.toString() + "</strike></html>");
+            }
+            
+            return this;
+        }
+    }
+
+    // recurring rows name their next occurrence, which moves with the clock, so they are never cached
+    private String rowText(Task task) {
+        String text = rowCache.get(task);
+        if (text == null) {
+            text = task.completed ? "<html><strike>" + task + "</strike></html>" : task.toString();
+            if (task.recurrence == null) {
+                rowCache.put(task, text);
+            }
+        }
+        return text;
+    }
+
+    private class TaskCellRenderer extends DefaultTableCellRenderer {
+        private static final long serialVersionUID = -3200331495699078868L;
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value,
+                boolean isSelected, boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            
+            Task task = taskTableModel.getTask(table.convertRowIndexToModel(row));
+            setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 8));
+            if (value instanceof Priority) {
+                setText(((Priority) value).display.trim());
+            } else if (value instanceof Category) {
+                setText(((Category) value).display.trim());
+            }
+            
+            if (task.completed) {
+                setForeground(Color.GRAY);
+                setFont(getFont().deriveFont(Font.ITALIC));
+            } else if (column == TaskTableModel.PRIORITY) {
+                setForeground(task.priority.color);
+                setFont(getFont().deriveFont(Font.BOLD));
+            } else if (column == TaskTableModel.CATEGORY) {
+                setForeground(task.category.color);
+            } else {
+                setForeground(isSelected ? table.getSelectionForeground() : table.getForeground());
+            }
+            
+            return this;
+        }
+    }
+
+    private class AnalyticsChart extends JPanel {
+        private static final long serialVersionUID = -9219709464321359944L;
+        private final Color[] colors = {new Color(34, 197, 94), primaryColor, new Color(251, 191, 36)};
+        private String[] titles = new String[0];
+        private double[][] series = new double[0][];
+        
+        AnalyticsChart() {
+            setBackground(Color.WHITE);
+        }
+        
+        void show(String[] titles, double[][] series) {
+            this.titles = titles;
+            this.series = series;
+            repaint();
+        }
+        
+        // the open-tasks series is drawn as a line, the others as bars
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+            int rows = series.length;
+            if (rows == 0) return;
+            int rowHeight = (getHeight() - 20) / rows;
+            for (int r = 0; r < rows; r++) {
+                double[] values = series[r];
+                int top = 10 + r * rowHeight;
+                int left = 50, right = getWidth() - 15, bottom = top + rowHeight - 12, plotTop = top + 18;
+                double max = 0;
+                for (double value : values) max = Math.max(max, value);
+                g2.setColor(Color.DARK_GRAY);
+                g2.drawString(titles[r], left, top + 12);
+                g2.drawString(max == Math.rint(max) ? String.valueOf((long) max) : String.format("%.1f", max), 8, plotTop + 10);
+                g2.drawString("0", 8, bottom);
+                g2.setColor(new Color(229, 231, 235));
+                g2.drawLine(left, bottom, right, bottom);
+                if (values.length == 0 || max == 0) continue;
+                double step = (right - left) / (double) values.length;
+                g2.setColor(colors[r % colors.length]);
+                int lastX = -1, lastY = -1;
+                for (int i = 0; i < values.length; i++) {
+                    int x = left + (int) (i * step);
+                    int h = (int) ((bottom - plotTop) * values[i] / max);
+                    if (r == 1) {
+                        int cx = x + (int) (step / 2);
+                        if (lastX >= 0) g2.drawLine(lastX, lastY, cx, bottom - h);
+                        lastX = cx;
+                        lastY = bottom - h;
+                    } else {
+                        g2.fillRect(x, bottom - h, Math.max(1, (int) step - 1), h);
+                    }
+                }
+            }
+        }
+    }
+
+    private class TaskTreeRenderer extends DefaultTreeCellRenderer {
+        private static final long serialVersionUID = -2964487040556597919L;
+        @Override
+        public Component getTreeCellRendererComponent(JTree tree, Object value, boolean selected,
+                boolean expanded, boolean leaf, int row, boolean hasFocus) {
+            super.getTreeCellRendererComponent(tree, value, selected, expanded, leaf, row, hasFocus);
+            
+            if (value instanceof Task) {
+                Task task = (Task) value;
+                setIcon(null);
+                String text = task.toString();
+                if (taskTree.hasChildren(task)) {
+                    int[] progress = taskTree.progress(task);
+                    text += String.format("  (%d/%d, %d%%)", progress[0], progress[1], progress[0] * 100 / progress[1]);
                 }
+                setText(task.completed ? "<html><strike>" + text + "</strike></html>" : text);
+                setForeground(task.completed ? Color.GRAY : task.priority.color);
             }
             
             return this;
@@ -1045,21 +2313,6328 @@ public class EnhancedTodoList extends JFrame {
         }
     }
 
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-               
-                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-                
-               
-                System.setProperty("awt.useSystemAAFontSettings", "on");
-                System.setProperty("swing.aatext", "true");
-                
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    // byte budgets for data that can be dropped and recomputed; when the old generation is still
+    // above PRESSURE_THRESHOLD after a collection, every resource is cut to half its size
+    static class CacheManager {
+        static final double PRESSURE_THRESHOLD = 0.7;
+        
+        interface Resource {
+            long weight();
             
-            new EnhancedTodoList();
+            void shrink(long targetBytes);
+        }
+        
+        private final long totalBudget;
+        private final Map<String, Resource> resources = new LinkedHashMap<>();
+        private final Map<String, Long> budgets = new HashMap<>();
+        private long sheds;
+        
+        CacheManager(long totalBudget) {
+            this.totalBudget = totalBudget;
+        }
+        
+        // -Dtodo.cacheMB sets the total, -Dtodo.cache.<name>MB overrides one region's share
+        static CacheManager configured() {
+            long mb = Long.getLong("todo.cacheMB", -1);
+            return new CacheManager(mb > 0 ? mb << 20 : Runtime.getRuntime().maxMemory() / 8);
+        }
+        
+        synchronized <T extends Resource> T register(String name, double share, T resource) {
+            long mb = Long.getLong("todo.cache." + name + "MB", -1);
+            budgets.put(name, mb >= 0 ? mb << 20 : (long) (totalBudget * share));
+            resources.put(name, resource);
+            return resource;
+        }
+        
+        <K, V> Cache<K, V> cache(String name, double share, ToLongFunction<V> weigher) {
+            Cache<K, V> cache = new Cache<>(weigher);
+            register(name, share, cache);
+            cache.budget = budget(name);
+            return cache;
+        }
+        
+        synchronized long budget(String name) {
+            return budgets.get(name);
+        }
+        
+        // trims to three quarters of the budget, so a resource growing one entry at a time is not trimmed on every add
+        synchronized void enforce(String name) {
+            Resource resource = resources.get(name);
+            long budget = budgets.get(name);
+            if (resource.weight() > budget) {
+                resource.shrink(budget / 4 * 3);
+            }
+        }
+        
+        synchronized void shed() {
+            sheds++;
+            for (Resource resource : resources.values()) {
+                resource.shrink(resource.weight() / 2);
+            }
+        }
+        
+        synchronized String report() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Resource> entry : resources.entrySet()) {
+                sb.append(String.format("%s %.1f/%.1f MB, ", entry.getKey(), entry.getValue().weight() / 1048576.0,
+                        budgets.get(entry.getKey()) / 1048576.0));
+            }
+            return sb.append(sheds).append(" sheds").toString();
+        }
+        
+        // notifications arrive on a JMX thread; dispatch moves the shedding to the thread that owns the UI caches
+        void watchMemory(Consumer<Runnable> dispatch) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                        && pool.getUsage().getMax() > 0) {
+                    pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * PRESSURE_THRESHOLD));
+                }
+            }
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener((notification, handback) -> {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                    dispatch.accept(this::shed);
+                }
+            }, null, null);
+        }
+    }
+
+    // size-aware LRU; the weigher estimates a value's retained bytes
+    static class Cache<K, V> implements CacheManager.Resource {
+        private static final long ENTRY_OVERHEAD = 64;
+        
+        private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final ToLongFunction<V> weigher;
+        private long budget = Long.MAX_VALUE;
+        private long weight;
+        
+        Cache(ToLongFunction<V> weigher) {
+            this.weigher = weigher;
+        }
+        
+        synchronized V get(K key) {
+            return map.get(key);
+        }
+        
+        synchronized void put(K key, V value) {
+            V old = map.put(key, value);
+            if (old != null) {
+                weight -= ENTRY_OVERHEAD + weigher.applyAsLong(old);
+            }
+            weight += ENTRY_OVERHEAD + weigher.applyAsLong(value);
+            if (weight > budget) {
+                shrink(budget / 4 * 3);
+            }
+        }
+        
+        synchronized void invalidate(K key) {
+            V old = map.remove(key);
+            if (old != null) {
+                weight -= ENTRY_OVERHEAD + weigher.applyAsLong(old);
+            }
+        }
+        
+        synchronized void clear() {
+            map.clear();
+            weight = 0;
+        }
+        
+        synchronized int size() {
+            return map.size();
+        }
+        
+        @Override
+        public synchronized long weight() {
+            return weight;
+        }
+        
+        @Override
+        public synchronized void shrink(long targetBytes) {
+            Iterator<V> eldest = map.values().iterator();
+            while (weight > targetBytes && eldest.hasNext()) {
+                weight -= ENTRY_OVERHEAD + weigher.applyAsLong(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+
+    // canonical instances for repeated text; entries vanish once nothing else refers to them
+    static class StringTable {
+        private final Map<String, WeakReference<String>> table = new WeakHashMap<>();
+        
+        synchronized String intern(String value) {
+            if (value == null) return null;
+            WeakReference<String> ref = table.get(value);
+            String canonical = ref != null ? ref.get() : null;
+            if (canonical == null) {
+                canonical = value;
+                table.put(canonical, new WeakReference<>(canonical));
+            }
+            return canonical;
+        }
+        
+        synchronized int size() {
+            return table.size();
+        }
+    }
+
+    static class HistoryLog {
+        static final char TASK = 't';
+        static final char EDIT = 'e';
+        static final char TEXT = 'x';
+        static final char LEGACY = 'l';
+        private static final String HEADER = "#history v2";
+        private static final Pattern LEGACY_LINE = Pattern.compile("\\[(\\d{2}-\\d{2}-\\d{4} \\d{2}:\\d{2}:\\d{2})\\] (.+?): ");
+        // sealed appends are batched so a chunk holds many events rather than one ~100-byte line
+        static final int BATCH_BYTES = 16 * 1024;
+        static final long BATCH_DELAY_MS = 2000;
+        private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "history-flusher");
+            thread.setDaemon(true);
+            return thread;
         });
+        
+        static class Entry {
+            final long time;
+            final char kind;
+            final String action;
+            final long taskId;
+            final String content;
+            final byte priority, category;
+            final String detail;
+            
+            private Entry(long time, char kind, String action, long taskId, String content,
+                    int priority, int category, String detail) {
+                this.time = time;
+                this.kind = kind;
+                this.action = STRINGS.intern(action);
+                this.taskId = taskId;
+                this.content = STRINGS.intern(content);
+                this.priority = (byte) priority;
+                this.category = (byte) category;
+                this.detail = STRINGS.intern(detail);
+            }
+        }
+        
+        static Entry task(String action, Task task) {
+            return task(action, task, null);
+        }
+        
+        static Entry task(String action, Task task, String detail) {
+            return new Entry(now(), TASK, action, task.id, task.content,
+                    task.priority.ordinal(), task.category.ordinal(), detail);
+        }
+        
+        static Entry edit(String action, Task task, String oldContent) {
+            return new Entry(now(), EDIT, action, task.id, task.content,
+                    task.priority.ordinal(), task.category.ordinal(), oldContent);
+        }
+        
+        static Entry text(String action, String detail) {
+            return new Entry(now(), TEXT, action, 0, null, -1, -1, detail);
+        }
+        
+        private static long now() {
+            return System.currentTimeMillis() / 1000;
+        }
+        
+        static String render(Entry entry) {
+            if (entry.kind == LEGACY) return entry.detail;
+            String time = LocalDateTime.ofEpochSecond(entry.time, 0,
+                    ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(entry.time)))
+                    .format(TaskService.TIME_FORMAT);
+            String text;
+            if (entry.kind == EDIT) {
+                text = "'" + entry.detail + "' → '" + entry.content + "'";
+            } else if (entry.kind == TASK) {
+                text = Task.describe(Priority.values()[entry.priority], Category.values()[entry.category], entry.content)
+                        + (entry.detail != null ? " (" + entry.detail + ")" : "");
+            } else {
+                text = entry.detail;
+            }
+            return String.format("[%s] %s: %s", time, entry.action, text);
+        }
+        
+        private final Path path;
+        private final java.util.List<Entry> entries = new ArrayList<>();
+        // strings already defined in the file, keyed by content hash so concurrent writers agree on ids
+        private final Set<Long> defined = new HashSet<>();
+        private boolean released;
+        private final StoragePipeline pipeline;
+        // set once the file is known to be sealed; appends then add chunks in its format
+        private StoragePipeline.Format sealed;
+        // where this log's last sealed append ended; any other size means another window appended since
+        private long sealedEnd = -1;
+        // sealed appends not yet written, and whether a flush is already scheduled for them
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private boolean flushScheduled;
+        private boolean hooked;
+        
+        HistoryLog(Path path) {
+            this(path, StoragePipeline.configured());
+        }
+        
+        HistoryLog(Path path, StoragePipeline pipeline) {
+            this.path = path;
+            this.pipeline = pipeline;
+        }
+        
+        java.util.List<Entry> entries() {
+            return entries;
+        }
+        
+        // once startup has rendered and scanned them, entries are no longer kept; the file stays complete
+        void release() {
+            entries.clear();
+            ((ArrayList<Entry>) entries).trimToSize();
+            released = true;
+        }
+        
+        // the newest entries that fit in maxChars, oldest first
+        static String renderTail(java.util.List<Entry> entries, long maxChars) {
+            java.util.List<String> lines = new ArrayList<>();
+            long chars = 0;
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                String line = render(entries.get(i));
+                chars += line.length() + 1;
+                if (chars > maxChars) break;
+                lines.add(line);
+            }
+            StringBuilder sb = new StringBuilder((int) Math.min(chars, maxChars));
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                sb.append(lines.get(i)).append('\n');
+            }
+            return sb.toString();
+        }
+        
+        // pre-v2 files are plain rendered lines; they are kept verbatim as legacy entries
+        synchronized void load() throws IOException {
+            flush();
+            released = false;
+            entries.clear();
+            defined.clear();
+            if (!Files.exists(path)) return;
+            if ((!StoragePipeline.isSealed(path) && pipeline.enabled() && Files.size(path) > 0)
+                    || StoragePipeline.isLegacy(path)) {
+                seal();
+            }
+            Map<Long, String> strings = new HashMap<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = readLine(reader)) != null) {
+                    // a line torn by a writer that died, or run into by the next append, is skipped on its own
+                    try {
+                        if (line.startsWith("s\t")) {
+                            int tab = line.indexOf('\t', 2);
+                            long id = Long.parseUnsignedLong(line.substring(2, tab), 16);
+                            String value = unescape(line.substring(tab + 1));
+                            // the key is the text's hash, so a cut-off or run-together text does not match it
+                            if (hash(value) != id) continue;
+                            strings.put(id, STRINGS.intern(value));
+                            defined.add(id);
+                        } else if (line.startsWith("e\t")) {
+                            String[] f = line.split("\t", -1);
+                            if (f.length < 9) continue;
+                            entries.add(new Entry(Long.parseLong(f[1]), f[2].charAt(0), lookup(strings, f[3]),
+                                    Long.parseLong(f[4]), lookup(strings, f[5]), Integer.parseInt(f[6]),
+                                    Integer.parseInt(f[7]), lookup(strings, f[8])));
+                        } else if (!line.isEmpty() && !line.equals(HEADER)) {
+                            entries.add(legacy(line));
+                        }
+                    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                        // skipped
+                    }
+                }
+            }
+        }
+        
+        private InputStream open() throws IOException {
+            InputStream in = new BufferedInputStream(Files.newInputStream(path));
+            if (!StoragePipeline.isSealed(path)) return in;
+            StoragePipeline.SealedInput input = pipeline.open(in);
+            sealed = input.format();
+            return input;
+        }
+        
+        // a damaged chunk ends the history there rather than failing the whole load
+        private static String readLine(BufferedReader reader) throws IOException {
+            try {
+                return reader.readLine();
+            } catch (EOFException | StreamCorruptedException e) {
+                return null;
+            }
+        }
+        
+        // one-off rewrite of a plain history once compression or a passphrase is configured, or of one
+        // sealed in the older chunk format
+        private void seal() throws IOException {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (InputStream in = open();
+                 StoragePipeline.SealedOutput out = pipeline.create(Files.newOutputStream(temp))) {
+                byte[] buffer = new byte[StoragePipeline.CHUNK_SIZE];
+                int n;
+                while ((n = readChunk(in, buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            sealed = null;
+            sealedEnd = -1;
+        }
+        
+        // like read(), but a damaged chunk ends the copy the way it ends a load
+        private static int readChunk(InputStream in, byte[] buffer) throws IOException {
+            try {
+                return in.read(buffer);
+            } catch (EOFException | StreamCorruptedException e) {
+                return -1;
+            }
+        }
+        
+        // old lines still carry their time and action, which is enough for throughput counts
+        private static Entry legacy(String line) {
+            Matcher m = LEGACY_LINE.matcher(line);
+            if (!m.lookingAt()) return new Entry(0, LEGACY, null, 0, null, -1, -1, line);
+            try {
+                long time = LocalDateTime.parse(m.group(1), TaskService.TIME_FORMAT)
+                        .atZone(ZoneId.systemDefault()).toEpochSecond();
+                return new Entry(time, LEGACY, m.group(2), 0, null, -1, -1, line);
+            } catch (DateTimeParseException e) {
+                return new Entry(0, LEGACY, null, 0, null, -1, -1, line);
+            }
+        }
+        
+        private static String lookup(Map<Long, String> strings, String id) {
+            return id.isEmpty() ? null : strings.get(Long.parseUnsignedLong(id, 16));
+        }
+        
+        // --self-check: a history with a torn string line, a bad number and a torn tail still loads, and the
+        // next append starts on a line of its own
+        static boolean checkHistory() throws Exception {
+            Path file = Files.createTempFile("todo-history", ".txt");
+            try {
+                StoragePipeline plain = new StoragePipeline(-1, null);
+                HistoryLog writer = new HistoryLog(file, plain);
+                writer.load();
+                writer.append(text(" CHECKED", "before"));
+                Files.write(file, "s\tabc\ne\t12x\tx\t\t0\t\t-1\t-1\t\ne\t1".getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.APPEND);
+                HistoryLog reader = new HistoryLog(file, plain);
+                reader.load();
+                int loaded = reader.entries().size();
+                reader.append(text(" CHECKED", "after"));
+                HistoryLog again = new HistoryLog(file, plain);
+                again.load();
+                java.util.List<Entry> entries = again.entries();
+                boolean ok = loaded == 1 && entries.size() == 2 && "after".equals(entries.get(1).detail);
+                System.out.printf("history check: %d entry kept past the damage, %d after appending: %s%n",
+                        loaded, entries.size(), ok ? "OK" : "FAILED");
+                return ok;
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+        
+        synchronized void append(Entry entry) throws IOException {
+            if (!released) {
+                entries.add(entry);
+            }
+            boolean empty = !Files.exists(path) || Files.size(path) == 0;
+            byte[] bytes = encode(entry, empty && pending.size() == 0);
+            if (pending.size() > 0 || (empty && pipeline.enabled()) || (!empty && StoragePipeline.isSealed(path))) {
+                pending.write(bytes);
+                if (pending.size() >= BATCH_BYTES) {
+                    flush();
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    FLUSHER.schedule(this::flushQuietly, BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+                if (!hooked) {
+                    hooked = true;
+                    Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "history-flush"));
+                }
+                return;
+            }
+            sealed = null;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // released when the channel closes
+                channel.lock();
+                long size = channel.size();
+                long end = lineEnd(channel, size);
+                // a writer that died mid-line left a fragment the entry would otherwise be glued to; strings it
+                // defined may be gone with it, so the entry is encoded again defining all of its own
+                if (end < size) {
+                    channel.truncate(end);
+                    defined.clear();
+                    bytes = encode(entry, end == 0);
+                    size = end;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    size += channel.write(buffer, size);
+                }
+            }
+        }
+        
+        private byte[] encode(Entry entry, boolean header) {
+            StringBuilder sb = new StringBuilder(128);
+            if (header) {
+                sb.append(HEADER).append('\n');
+            }
+            String action = define(sb, entry.action);
+            String content = define(sb, entry.content);
+            String detail = define(sb, entry.detail);
+            sb.append("e\t").append(entry.time).append('\t').append(entry.kind).append('\t')
+              .append(action).append('\t').append(entry.taskId).append('\t').append(content).append('\t')
+              .append(entry.priority).append('\t').append(entry.category).append('\t').append(detail).append('\n');
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        
+        // the length up to and including the last newline
+        private static long lineEnd(FileChannel channel, long size) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long end = size;
+            while (end > 0) {
+                long start = Math.max(0, end - buffer.capacity());
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                channel.read(buffer, start);
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') return start + i + 1;
+                }
+                end = start;
+            }
+            return 0;
+        }
+        
+        // writes batched sealed appends as one chunk; on failure they stay pending for the next attempt
+        synchronized void flush() throws IOException {
+            flushScheduled = false;
+            if (pending.size() == 0) return;
+            byte[] bytes = pending.toByteArray();
+            if (Files.exists(path) && StoragePipeline.isLegacy(path)) seal();
+            appendSealed(bytes);
+            pending.reset();
+        }
+        
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        // the chunk count is part of every chunk's tag, so it is taken under the lock other windows append under
+        private void appendSealed(byte[] bytes) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                channel.lock();
+                long size = channel.size();
+                // windows that all found the history empty start it one at a time; the later ones append
+                if (size == 0) {
+                    ByteArrayOutputStream file = new ByteArrayOutputStream(bytes.length + 64);
+                    try (StoragePipeline.SealedOutput out = pipeline.create(file)) {
+                        out.write(bytes);
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(file.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        size += channel.write(buffer, size);
+                    }
+                    sealed = null;
+                    sealedEnd = -1;
+                    return;
+                }
+                if (sealed == null || size != sealedEnd) {
+                    long[] end = new long[1];
+                    sealed = pipeline.resume(new BufferedInputStream(Channels.newInputStream(channel.position(0))), end);
+                    // a torn chunk from a writer that died would hide everything appended after it
+                    if (end[0] < size) channel.truncate(end[0]);
+                    size = end[0];
+                }
+                ByteBuffer chunk = ByteBuffer.wrap(sealed.sealChunk(bytes, bytes.length, true));
+                while (chunk.hasRemaining()) {
+                    size += channel.write(chunk, size);
+                }
+                sealedEnd = size;
+            }
+        }
+        
+        private String define(StringBuilder sb, String value) {
+            if (value == null) return "";
+            long id = hash(value);
+            String key = Long.toHexString(id);
+            if (defined.add(id)) {
+                sb.append("s\t").append(key).append('\t').append(escape(value)).append('\n');
+            }
+            return key;
+        }
+        
+        private static long hash(String value) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                h ^= value.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+        
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+        }
+        
+        private static String unescape(String value) {
+            if (value.indexOf('\\') < 0) return value;
+            StringBuilder sb = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' && i + 1 < value.length()) {
+                    char e = value.charAt(++i);
+                    sb.append(e == 't' ? '\t' : e == 'n' ? '\n' : e == 'r' ? '\r' : e);
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    static class Recurrence {
+        private static final String[] DAY_NAMES = {"sun", "mon", "tue", "wed", "thu", "fri", "sat"};
+        private static final int SEARCH_DAYS = 366 * 5;
+        
+        final String text;
+        private final long minutes;
+        private final int hours, days, months, weekdays;
+        private final boolean anyDay, anyWeekday;
+        
+        // cron fields: minute hour day-of-month month day-of-week
+        private Recurrence(String text, String cron) {
+            String[] fields = cron.trim().split("\\s+");
+            if (fields.length != 5) {
+                throw new IllegalArgumentException("Expected 5 cron fields but got " + fields.length + ": " + cron);
+            }
+            this.text = text;
+            this.minutes = field(fields[0], 0, 59, null);
+            this.hours = (int) field(fields[1], 0, 23, null);
+            this.days = (int) field(fields[2], 1, 31, null);
+            this.months = (int) field(fields[3], 1, 12, null);
+            long dow = field(fields[4], 0, 7, DAY_NAMES);
+            this.weekdays = (int) ((dow | (dow >>> 7)) & 0x7f);
+            this.anyDay = fields[2].equals("*");
+            this.anyWeekday = fields[4].equals("*");
+        }
+        
+        // accepts "daily 09:00", "weekdays 08:30", "weekly mon,thu 18:00", "monthly 1 10:00"
+        // or a five-field cron expression, optionally prefixed with "cron"
+        static Recurrence parse(String text) {
+            String normalized = text.trim().toLowerCase().replaceAll("\\s+", " ");
+            String[] parts = normalized.split(" ");
+            switch (parts[0]) {
+                case "daily":
+                    expectParts(parts, 2, "daily HH:mm");
+                    return new Recurrence(normalized, cronAt(parts[1], "* * *"));
+                case "weekdays":
+                    expectParts(parts, 2, "weekdays HH:mm");
+                    return new Recurrence(normalized, cronAt(parts[1], "* * 1-5"));
+                case "weekly":
+                    expectParts(parts, 3, "weekly mon,thu HH:mm");
+                    return new Recurrence(normalized, cronAt(parts[2], "* * " + parts[1]));
+                case "monthly":
+                    expectParts(parts, 3, "monthly DAY HH:mm");
+                    return new Recurrence(normalized, cronAt(parts[2], parts[1] + " * *"));
+                case "cron":
+                    return new Recurrence(normalized, normalized.substring("cron".length()));
+                default:
+                    return new Recurrence(normalized, normalized);
+            }
+        }
+        
+        private static void expectParts(String[] parts, int count, String usage) {
+            if (parts.length != count) throw new IllegalArgumentException("Expected \"" + usage + "\"");
+        }
+        
+        private static String cronAt(String time, String rest) {
+            String[] hm = time.split(":");
+            if (hm.length != 2) throw new IllegalArgumentException("Expected a time like 09:30 but got " + time);
+            return Integer.parseInt(hm[1]) + " " + Integer.parseInt(hm[0]) + " " + rest;
+        }
+        
+        private static long field(String spec, int min, int max, String[] names) {
+            long bits = 0;
+            for (String part : spec.split(",")) {
+                int step = 1;
+                String range = part;
+                int slash = part.indexOf('/');
+                if (slash >= 0) {
+                    step = Integer.parseInt(part.substring(slash + 1));
+                    range = part.substring(0, slash);
+                    if (step <= 0) throw new IllegalArgumentException("Bad step in " + part);
+                }
+                int lo, hi;
+                if (range.equals("*")) {
+                    lo = min;
+                    hi = max;
+                } else {
+                    int dash = range.indexOf('-');
+                    lo = value(dash < 0 ? range : range.substring(0, dash), names);
+                    hi = dash >= 0 ? value(range.substring(dash + 1), names) : slash >= 0 ? max : lo;
+                }
+                if (lo < min || hi > max || lo > hi) {
+                    throw new IllegalArgumentException("Value out of range " + min + "-" + max + ": " + part);
+                }
+                for (int v = lo; v <= hi; v += step) {
+                    bits |= 1L << v;
+                }
+            }
+            return bits;
+        }
+        
+        private static int value(String token, String[] names) {
+            if (names != null) {
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equals(token)) return i;
+                }
+            }
+            return Integer.parseInt(token);
+        }
+        
+        private boolean matches(LocalDate date) {
+            if ((months & (1 << date.getMonthValue())) == 0) return false;
+            boolean dom = (days & (1 << date.getDayOfMonth())) != 0;
+            boolean dow = (weekdays & (1 << (date.getDayOfWeek().getValue() % 7))) != 0;
+            if (anyDay) return dow;
+            if (anyWeekday) return dom;
+            return dom || dow;
+        }
+        
+        // first occurrence strictly after the given minute, or null if there is none within five years
+        LocalDateTime next(LocalDateTime after) {
+            LocalDateTime start = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+            LocalDate date = start.toLocalDate();
+            int fromHour = start.getHour();
+            int fromMinute = start.getMinute();
+            for (int i = 0; i < SEARCH_DAYS; i++) {
+                if (matches(date)) {
+                    for (int h = fromHour; h < 24; h++) {
+                        if ((hours & (1 << h)) == 0) continue;
+                        long candidates = minutes & (-1L << (h == fromHour ? fromMinute : 0));
+                        if (candidates != 0) {
+                            return date.atTime(h, Long.numberOfTrailingZeros(candidates));
+                        }
+                    }
+                }
+                date = date.plusDays(1);
+                fromHour = 0;
+                fromMinute = 0;
+            }
+            return null;
+        }
+        
+        Stream<LocalDateTime> occurrences(LocalDateTime after) {
+            return Stream.iterate(next(after), Objects::nonNull, this::next);
+        }
+    }
+
+    static class RecurrenceSchedule implements TaskService.ChangeListener {
+        static class Occurrence {
+            final Task task;
+            final LocalDateTime time;
+            
+            Occurrence(Task task, LocalDateTime time) {
+                this.task = task;
+                this.time = time;
+            }
+        }
+        
+        private static final Comparator<Occurrence> BY_TIME = Comparator.comparing(o -> o.time);
+        
+        private final TaskService service;
+        private final Set<Task> recurring = new LinkedHashSet<>();
+        private final PriorityQueue<Occurrence> reminders = new PriorityQueue<>(BY_TIME);
+        private LocalDateTime lastPoll = LocalDateTime.now();
+        
+        RecurrenceSchedule(TaskService service) {
+            this.service = service;
+            rebuild();
+        }
+        
+        @Override
+        public void taskChanged(String op, Task task, int index, boolean remote) {
+            if (task == null) {
+                rebuild();
+                return;
+            }
+            recurring.remove(task);
+            reminders.removeIf(o -> o.task == task);
+            if (!TaskJournal.REMOVE.equals(op)) {
+                track(task);
+            }
+        }
+        
+        private void rebuild() {
+            recurring.clear();
+            reminders.clear();
+            for (int i = 0; i < service.model.getSize(); i++) {
+                track(service.model.getElementAt(i));
+            }
+        }
+        
+        // only the next occurrence of each rule is ever held
+        private void track(Task task) {
+            if (task.completed || task.rule() == null) return;
+            recurring.add(task);
+            LocalDateTime next = task.rule().next(latest(lastPoll, task.recurrenceFrom));
+            if (next != null) {
+                reminders.add(new Occurrence(task, next));
+            }
+        }
+        
+        private static LocalDateTime latest(LocalDateTime time, String recurrenceFrom) {
+            if (recurrenceFrom == null) return time;
+            LocalDateTime from = LocalDateTime.parse(recurrenceFrom, Task.CREATED_FORMAT);
+            return from.isAfter(time) ? from : time;
+        }
+        
+        java.util.List<Occurrence> pollDue(LocalDateTime now) {
+            java.util.List<Occurrence> due = new ArrayList<>();
+            while (!reminders.isEmpty() && !reminders.peek().time.isAfter(now)) {
+                Occurrence occurrence = reminders.poll();
+                due.add(occurrence);
+                LocalDateTime next = occurrence.task.rule().next(occurrence.time);
+                if (next != null) {
+                    reminders.add(new Occurrence(occurrence.task, next));
+                }
+            }
+            lastPoll = now;
+            return due;
+        }
+        
+        // merges the rules lazily; nothing beyond the consumed prefix is generated
+        Stream<Occurrence> window(LocalDateTime from, LocalDateTime to) {
+            PriorityQueue<Occurrence> cursor = new PriorityQueue<>(BY_TIME);
+            for (Task task : recurring) {
+                LocalDateTime first = task.rule().next(latest(from.minusMinutes(1), task.recurrenceFrom));
+                if (first != null) {
+                    cursor.add(new Occurrence(task, first));
+                }
+            }
+            return StreamSupport.stream(new Spliterators.AbstractSpliterator<Occurrence>(Long.MAX_VALUE,
+                    Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super Occurrence> action) {
+                    Occurrence head = cursor.poll();
+                    if (head == null || !head.time.isBefore(to)) return false;
+                    LocalDateTime next = head.task.rule().next(head.time);
+                    if (next != null) {
+                        cursor.add(new Occurrence(head.task, next));
+                    }
+                    action.accept(head);
+                    return true;
+                }
+            }, false);
+        }
+    }
+
+    // pending tasks ranked by urgency in an indexed binary heap; every change re-sifts one entry
+    static class NextUp implements TaskService.ChangeListener {
+        private static final double[] PRIORITY_WEIGHT = {0, 48, 120};
+        private static final double[] CATEGORY_WEIGHT = {24, 0, 0, 24, 12, 0};
+        private static final double DUE_WEIGHT = 2;
+        private static final long UNDATED_HORIZON_HOURS = 14 * 24;
+        
+        private final TaskService service;
+        private final Map<Task, Integer> position = new IdentityHashMap<>();
+        private Task[] heap = new Task[16];
+        private double[] scores = new double[16];
+        private int size;
+        
+        NextUp(TaskService service) {
+            this.service = service;
+            rebuild();
+        }
+        
+        // each term is linear in absolute hours, so the relative order never drifts as time passes
+        static double score(Task task) {
+            long created = hours(Task.parseTime(task.createdAt));
+            LocalDateTime dueTime = due(task);
+            long due = dueTime != null ? hours(dueTime) : created + UNDATED_HORIZON_HOURS;
+            return PRIORITY_WEIGHT[task.priority.ordinal()] + CATEGORY_WEIGHT[task.category.ordinal()]
+                    - created - DUE_WEIGHT * due;
+        }
+        
+        static LocalDateTime due(Task task) {
+            LocalDateTime due = Task.parseTime(task.dueDate);
+            if (due == null && task.recurrenceFrom != null && task.rule() != null) {
+                due = task.nextOccurrence();
+            }
+            return due;
+        }
+        
+        private static long hours(LocalDateTime time) {
+            return time == null ? 0 : time.toEpochSecond(ZoneOffset.UTC) / 3600;
+        }
+        
+        @Override
+        public void taskChanged(String op, Task task, int index, boolean remote) {
+            if (task == null) {
+                rebuild();
+            } else if (TaskJournal.REMOVE.equals(op) || task.completed) {
+                remove(task);
+            } else if (!TaskJournal.MOVE.equals(op)) {
+                update(task);
+            }
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        // walks the heap best-first without disturbing it: O(n log n) for the top n
+        java.util.List<Task> top(int n) {
+            java.util.List<Task> result = new ArrayList<>(Math.min(n, size));
+            if (size == 0) return result;
+            PriorityQueue<Integer> frontier = new PriorityQueue<>(
+                    (a, b) -> before(a, b) ? -1 : before(b, a) ? 1 : 0);
+            frontier.add(0);
+            while (result.size() < n && !frontier.isEmpty()) {
+                int i = frontier.poll();
+                result.add(heap[i]);
+                if (2 * i + 1 < size) frontier.add(2 * i + 1);
+                if (2 * i + 2 < size) frontier.add(2 * i + 2);
+            }
+            return result;
+        }
+        
+        private void rebuild() {
+            position.clear();
+            size = 0;
+            for (int i = 0; i < service.model.getSize(); i++) {
+                Task task = service.model.getElementAt(i);
+                if (!task.completed) {
+                    grow();
+                    place(size++, task, score(task));
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+        
+        private void update(Task task) {
+            Integer i = position.get(task);
+            double score = score(task);
+            if (i == null) {
+                grow();
+                place(size, task, score);
+                siftUp(size++);
+            } else if (score != scores[i]) {
+                scores[i] = score;
+                siftUp(i);
+                siftDown(position.get(task));
+            }
+        }
+        
+        private void remove(Task task) {
+            Integer i = position.remove(task);
+            if (i == null) return;
+            size--;
+            if (i == size) {
+                heap[size] = null;
+                return;
+            }
+            Task moved = heap[size];
+            place(i, moved, scores[size]);
+            heap[size] = null;
+            siftUp(i);
+            siftDown(position.get(moved));
+        }
+        
+        private void grow() {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+        }
+        
+        private void place(int i, Task task, double score) {
+            heap[i] = task;
+            scores[i] = score;
+            position.put(task, i);
+        }
+        
+        private boolean before(int a, int b) {
+            return scores[a] > scores[b] || (scores[a] == scores[b] && heap[a].id < heap[b].id);
+        }
+        
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!before(i, parent)) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+        
+        private void siftDown(int i) {
+            while (true) {
+                int best = i;
+                int left = 2 * i + 1;
+                if (left < size && before(left, best)) best = left;
+                if (left + 1 < size && before(left + 1, best)) best = left + 1;
+                if (best == i) return;
+                swap(i, best);
+                i = best;
+            }
+        }
+        
+        private void swap(int a, int b) {
+            Task task = heap[a];
+            double score = scores[a];
+            place(a, heap[b], scores[b]);
+            place(b, task, score);
+        }
+    }
+
+    // table view over the shared list model; sorting only ever publishes a permutation of row indices
+    static class TaskTableModel extends AbstractTableModel implements ListDataListener {
+        private static final long serialVersionUID = -3047343104918335897L;
+        static final String[] COLUMNS = {"Task", "Priority", "Category", "Created", "Completed", "Due"};
+        static final int CONTENT = 0, PRIORITY = 1, CATEGORY = 2, CREATED = 3, COMPLETED = 4, DUE = 5;
+        private static final int RESORT_DELAY_MS = 300;
+        
+        private final DefaultListModel<Task> tasks;
+        private final Timer resortTimer;
+        private int[] view;
+        private int sortColumn = -1;
+        private boolean descending;
+        private int generation;
+        
+        TaskTableModel(DefaultListModel<Task> tasks) {
+            this.tasks = tasks;
+            resortTimer = new Timer(RESORT_DELAY_MS, e -> resort());
+            resortTimer.setRepeats(false);
+            tasks.addListDataListener(this);
+        }
+        
+        @Override
+        public int getRowCount() {
+            return tasks.getSize();
+        }
+        
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+        
+        @Override
+        public String getColumnName(int column) {
+            if (column != sortColumn) return COLUMNS[column];
+            return COLUMNS[column] + (descending ? " ▼" : " ▲");
+        }
+        
+        @Override
+        public Object getValueAt(int row, int column) {
+            Task task = getTask(row);
+            switch (column) {
+                case CONTENT: return task.content;
+                case PRIORITY: return task.priority;
+                case CATEGORY: return task.category;
+                case CREATED: return task.createdAt;
+                case COMPLETED: return task.completedAt != null ? task.completedAt : "";
+                default: return task.dueDate;
+            }
+        }
+        
+        Task getTask(int row) {
+            return tasks.getElementAt(modelIndex(row));
+        }
+        
+        int modelIndex(int row) {
+            return view == null || row >= view.length ? row : view[row];
+        }
+        
+        int getSortColumn() {
+            return sortColumn;
+        }
+        
+        void sortBy(int column) {
+            descending = column == sortColumn && !descending;
+            sortColumn = column;
+            resort();
+        }
+        
+        // only the reference snapshot is taken on the EDT; keys and the sort run on the common pool
+        private void resort() {
+            resortTimer.stop();
+            if (sortColumn < 0) return;
+            int current = ++generation;
+            Object[] rows = tasks.toArray();
+            int column = sortColumn;
+            boolean reverse = descending;
+            ForkJoinPool.commonPool().execute(() -> {
+                int[] order = sort(rows, column, reverse);
+                SwingUtilities.invokeLater(() -> {
+                    if (current != generation) return;
+                    view = order;
+                    fireTableDataChanged();
+                });
+            });
+        }
+        
+        static int[] sort(Object[] rows, int column, boolean descending) {
+            int n = rows.length;
+            long[] keys = new long[n];
+            String[] text = column == CONTENT ? new String[n] : null;
+            int[] order = new int[n];
+            ForkJoinPool.commonPool().invoke(new KeyBatch(rows, column, keys, text, 0, n));
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            ForkJoinPool.commonPool().invoke(new SortBatch(order, new int[n], keys, text, descending, 0, n));
+            return order;
+        }
+        
+        // text sorts on its first four chars packed into a long; full strings only break ties
+        static long key(Task task, int column) {
+            switch (column) {
+                case CONTENT:
+                    long packed = 0;
+                    for (int i = 0; i < 4; i++) {
+                        packed = (packed << 16) | (i < task.content.length() ? task.content.charAt(i) : 0);
+                    }
+                    return packed ^ Long.MIN_VALUE;
+                case PRIORITY: return task.priority.ordinal();
+                case CATEGORY: return task.category.ordinal();
+                case CREATED: return minutes(task.createdAt);
+                case COMPLETED: return completedMinutes(task.completedAt);
+                default: return minutes(task.dueDate);
+            }
+        }
+        
+        private static long minutes(String text) {
+            LocalDateTime time = Task.parseTime(text);
+            return time == null ? Long.MAX_VALUE : time.toEpochSecond(ZoneOffset.UTC) / 60;
+        }
+        
+        // completion times are written with TaskService.TIME_FORMAT, which Task.parseTime does not read
+        private static long completedMinutes(String text) {
+            if (text == null || text.isEmpty()) return Long.MAX_VALUE;
+            try {
+                return LocalDateTime.parse(text, TaskService.TIME_FORMAT).toEpochSecond(ZoneOffset.UTC) / 60;
+            } catch (DateTimeParseException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+        
+        @Override
+        public void intervalAdded(ListDataEvent e) {
+            int count = e.getIndex1() - e.getIndex0() + 1;
+            if (view != null) {
+                int[] grown = Arrays.copyOf(view, view.length + count);
+                for (int i = 0; i < view.length; i++) {
+                    if (grown[i] >= e.getIndex0()) grown[i] += count;
+                }
+                for (int i = 0; i < count; i++) {
+                    grown[view.length + i] = e.getIndex0() + i;
+                }
+                view = grown;
+                fireTableRowsInserted(getRowCount() - count, getRowCount() - 1);
+            } else {
+                fireTableRowsInserted(e.getIndex0(), e.getIndex1());
+            }
+            changed();
+        }
+        
+        // deletions are reported row by row rather than as a data change, which would clear the selection
+        @Override
+        public void intervalRemoved(ListDataEvent e) {
+            int count = e.getIndex1() - e.getIndex0() + 1;
+            if (view != null) {
+                int[] shrunk = new int[Math.max(0, view.length - count)];
+                int[] removed = new int[Math.min(count, view.length)];
+                int n = 0, gone = 0;
+                for (int row = 0; row < view.length; row++) {
+                    int index = view[row];
+                    if (index < e.getIndex0()) {
+                        shrunk[n++] = index;
+                    } else if (index > e.getIndex1()) {
+                        shrunk[n++] = index - count;
+                    } else {
+                        removed[gone++] = row;
+                    }
+                }
+                view = shrunk;
+                // sorted rows of one removed interval may be scattered; each run goes last to first
+                for (int end = gone - 1; end >= 0; ) {
+                    int start = end;
+                    while (start > 0 && removed[start - 1] == removed[start] - 1) start--;
+                    fireTableRowsDeleted(removed[start], removed[end]);
+                    end = start - 1;
+                }
+            } else {
+                fireTableRowsDeleted(e.getIndex0(), e.getIndex1());
+            }
+            changed();
+        }
+        
+        @Override
+        public void contentsChanged(ListDataEvent e) {
+            int first = e.getIndex0(), last = Math.min(e.getIndex1(), getRowCount() - 1);
+            if (first < 0 || first > last) {
+                if (getRowCount() > 0) fireTableRowsUpdated(0, getRowCount() - 1);
+            } else if (view == null) {
+                fireTableRowsUpdated(first, last);
+            } else {
+                int low = Integer.MAX_VALUE, high = -1;
+                for (int row = 0; row < view.length; row++) {
+                    if (view[row] >= first && view[row] <= last) {
+                        low = Math.min(low, row);
+                        high = row;
+                    }
+                }
+                if (high >= 0) fireTableRowsUpdated(low, high);
+            }
+            changed();
+        }
+        
+        // a burst of edits collapses into one resort once it goes quiet
+        private void changed() {
+            if (sortColumn < 0) return;
+            generation++;
+            resortTimer.restart();
+        }
+        
+        private static class KeyBatch extends RecursiveAction {
+            private static final long serialVersionUID = -1328694442914686229L;
+            private static final int THRESHOLD = 4096;
+            private final Object[] rows;
+            private final int column;
+            private final long[] keys;
+            private final String[] text;
+            private final int from, to;
+            
+            KeyBatch(Object[] rows, int column, long[] keys, String[] text, int from, int to) {
+                this.rows = rows;
+                this.column = column;
+                this.keys = keys;
+                this.text = text;
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected void compute() {
+                if (to - from <= THRESHOLD) {
+                    for (int i = from; i < to; i++) {
+                        Task task = (Task) rows[i];
+                        keys[i] = key(task, column);
+                        if (text != null) {
+                            text[i] = task.content;
+                        }
+                    }
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new KeyBatch(rows, column, keys, text, from, mid),
+                          new KeyBatch(rows, column, keys, text, mid, to));
+            }
+        }
+        
+        // stable merge sort of row indices by key; halves are sorted in parallel and merged into tmp
+        private static class SortBatch extends RecursiveAction {
+            private static final long serialVersionUID = 6049514863824449843L;
+            private static final int THRESHOLD = 8192;
+            private final int[] order, tmp;
+            private final long[] keys;
+            private final String[] text;
+            private final boolean descending;
+            private final int from, to;
+            
+            SortBatch(int[] order, int[] tmp, long[] keys, String[] text, boolean descending, int from, int to) {
+                this.order = order;
+                this.tmp = tmp;
+                this.keys = keys;
+                this.text = text;
+                this.descending = descending;
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected void compute() {
+                if (to - from <= THRESHOLD) {
+                    sort(from, to);
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new SortBatch(order, tmp, keys, text, descending, from, mid),
+                          new SortBatch(order, tmp, keys, text, descending, mid, to));
+                merge(from, mid, to);
+            }
+            
+            private void sort(int lo, int hi) {
+                if (hi - lo < 2) return;
+                int mid = (lo + hi) >>> 1;
+                sort(lo, mid);
+                sort(mid, hi);
+                merge(lo, mid, hi);
+            }
+            
+            private void merge(int lo, int mid, int hi) {
+                if (compare(order[mid - 1], order[mid]) <= 0) return;
+                System.arraycopy(order, lo, tmp, lo, hi - lo);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    order[k++] = compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+                }
+                while (i < mid) order[k++] = tmp[i++];
+                while (j < hi) order[k++] = tmp[j++];
+            }
+            
+            private int compare(int a, int b) {
+                int c = Long.compare(keys[a], keys[b]);
+                if (c == 0 && text != null) {
+                    c = text[a].compareTo(text[b]);
+                }
+                return descending ? -c : c;
+            }
+        }
+    }
+
+    // subtask hierarchy over the flat list; each node carries its subtree's totals so a change walks only its ancestors
+    static class TaskTree implements TreeModel, TaskService.ChangeListener {
+        static final String ROOT = "All Tasks";
+        
+        private static class Node {
+            final Task task;
+            Node parent;
+            java.util.List<Node> children = Collections.emptyList();
+            // position in parent.children; children from stale onwards may be off after a removal and are
+            // renumbered the next time one of their positions is asked for
+            int index;
+            int stale = Integer.MAX_VALUE;
+            int total, done;
+            boolean completed;
+            long waitingFor;
+            
+            Node(Task task) {
+                this.task = task;
+            }
+            
+            void addChild(Node child) {
+                if (children.isEmpty()) children = new ArrayList<>(2);
+                child.parent = this;
+                child.index = children.size();
+                children.add(child);
+            }
+            
+            Node removeChild(int index) {
+                stale = Math.min(stale, index);
+                return children.remove(index);
+            }
+            
+            int indexOf(Node child) {
+                if (child.index >= stale) {
+                    for (int i = stale; i < children.size(); i++) {
+                        children.get(i).index = i;
+                    }
+                    stale = Integer.MAX_VALUE;
+                }
+                return child.index;
+            }
+        }
+        
+        private final TaskService service;
+        private final Node root = new Node(null);
+        private final Map<Long, Node> nodes = new HashMap<>();
+        // top-level nodes whose parent is not loaded (yet), keyed by that parent's id
+        private final Map<Long, java.util.List<Node>> orphans = new HashMap<>();
+        private final java.util.List<TreeModelListener> treeListeners = new CopyOnWriteArrayList<>();
+        
+        TaskTree(TaskService service) {
+            this.service = service;
+            rebuild();
+        }
+        
+        int total() {
+            return root.total;
+        }
+        
+        int done() {
+            return root.done;
+        }
+        
+        int[] progress(Task task) {
+            Node node = nodes.get(task.id);
+            return node == null ? new int[] {0, 0} : new int[] {node.done, node.total};
+        }
+        
+        Task parentOf(Task task) {
+            Node node = nodes.get(task.id);
+            return node == null || node.parent == root ? null : node.parent.task;
+        }
+        
+        boolean hasChildren(Task task) {
+            Node node = nodes.get(task.id);
+            return node != null && !node.children.isEmpty();
+        }
+        
+        @Override
+        public void taskChanged(String op, Task task, int index, boolean remote) {
+            if (task == null) {
+                rebuild();
+                fireStructureChanged(new TreePath(ROOT));
+            } else if (TaskJournal.REMOVE.equals(op)) {
+                remove(task);
+            } else if (TaskJournal.ADD.equals(op)) {
+                add(task);
+            } else if (!TaskJournal.MOVE.equals(op)) {
+                update(task);
+            }
+        }
+        
+        private void rebuild() {
+            nodes.clear();
+            orphans.clear();
+            root.children = Collections.emptyList();
+            root.total = root.done = 0;
+            for (int i = 0; i < service.model.getSize(); i++) {
+                Task task = service.model.getElementAt(i);
+                nodes.put(task.id, new Node(task));
+            }
+            for (int i = 0; i < service.model.getSize(); i++) {
+                Node node = nodes.get(service.model.getElementAt(i).id);
+                attach(node);
+                node.completed = node.task.completed;
+                node.total = 1;
+                node.done = node.completed ? 1 : 0;
+            }
+            // totals are summed once the whole tree is attached, since a child may come before its parent in the
+            // list; reversed pre-order visits every child before its parent, without recursing down deep chains
+            java.util.List<Node> order = new ArrayList<>(nodes.size());
+            java.util.List<Node> pending = new ArrayList<>(root.children);
+            while (!pending.isEmpty()) {
+                Node node = pending.remove(pending.size() - 1);
+                order.add(node);
+                pending.addAll(node.children);
+            }
+            for (int i = order.size() - 1; i >= 0; i--) {
+                Node node = order.get(i);
+                node.parent.total += node.total;
+                node.parent.done += node.done;
+            }
+        }
+        
+        // a missing parent, or one that would close a cycle, leaves the task at the top level
+        private void attach(Node node) {
+            Node parent = nodes.get(node.task.parentId);
+            for (Node up = parent; up != null; up = up.parent) {
+                if (up == node) {
+                    parent = null;
+                    break;
+                }
+            }
+            if (parent == null && node.task.parentId != 0) {
+                node.waitingFor = node.task.parentId;
+                orphans.computeIfAbsent(node.waitingFor, k -> new ArrayList<>()).add(node);
+            }
+            (parent != null ? parent : root).addChild(node);
+        }
+        
+        private void adjust(Node from, int total, int done) {
+            for (Node node = from; node != null; node = node.parent) {
+                node.total += total;
+                node.done += done;
+            }
+        }
+        
+        private void add(Task task) {
+            Node node = new Node(task);
+            nodes.put(task.id, node);
+            attach(node);
+            node.completed = task.completed;
+            adjust(node, 1, node.completed ? 1 : 0);
+            fireInserted(node);
+            fireAncestorsChanged(node.parent);
+            // children that arrived before their parent (e.g. from another window) are adopted now
+            java.util.List<Node> waiting = orphans.remove(task.id);
+            if (waiting == null) return;
+            for (Node orphan : waiting) {
+                detach(orphan);
+                attach(orphan);
+                adjust(orphan.parent, orphan.total, orphan.done);
+                fireInserted(orphan);
+                fireAncestorsChanged(orphan.parent);
+            }
+        }
+        
+        private void remove(Task task) {
+            Node node = nodes.remove(task.id);
+            if (node == null) return;
+            Node parent = detach(node);
+            fireAncestorsChanged(parent);
+            // subtasks of a removed task move to the top level with their own subtrees, and stop naming it
+            // as their parent so a task restored later under the same id does not take them back
+            for (Node child : node.children) {
+                child.parent = null;
+                child.task.parentId = 0;
+                attach(child);
+                adjust(child.parent, child.total, child.done);
+                fireInserted(child);
+            }
+        }
+        
+        private void update(Task task) {
+            Node node = nodes.get(task.id);
+            if (node == null) return;
+            Node expected = nodes.get(task.parentId);
+            if ((expected != null ? expected : root) != node.parent) {
+                detach(node);
+                attach(node);
+                adjust(node.parent, node.total, node.done);
+                fireInserted(node);
+            }
+            int delta = (task.completed ? 1 : 0) - (node.completed ? 1 : 0);
+            node.completed = task.completed;
+            adjust(node, 0, delta);
+            fireAncestorsChanged(node);
+        }
+        
+        private Node detach(Node node) {
+            Node parent = node.parent;
+            if (node.waitingFor != 0) {
+                java.util.List<Node> waiting = orphans.get(node.waitingFor);
+                if (waiting != null) {
+                    waiting.remove(node);
+                    if (waiting.isEmpty()) orphans.remove(node.waitingFor);
+                }
+                node.waitingFor = 0;
+            }
+            int index = parent.indexOf(node);
+            parent.removeChild(index);
+            adjust(parent, -node.total, -node.done);
+            node.parent = null;
+            TreeModelEvent event = new TreeModelEvent(this, path(parent), new int[] {index}, new Object[] {node.task});
+            for (TreeModelListener listener : treeListeners) {
+                listener.treeNodesRemoved(event);
+            }
+            return parent;
+        }
+        
+        private TreePath path(Node node) {
+            java.util.List<Object> path = new ArrayList<>();
+            for (Node up = node; up != null; up = up.parent) {
+                path.add(0, up == root ? ROOT : up.task);
+            }
+            return new TreePath(path.toArray());
+        }
+        
+        private void fireInserted(Node node) {
+            TreeModelEvent event = new TreeModelEvent(this, path(node.parent),
+                    new int[] {node.parent.children.size() - 1}, new Object[] {node.task});
+            for (TreeModelListener listener : treeListeners) {
+                listener.treeNodesInserted(event);
+            }
+        }
+        
+        // only the ancestors' labels change, so they are repainted one by one up to the root
+        private void fireAncestorsChanged(Node from) {
+            for (Node node = from; node != null && node != root; node = node.parent) {
+                TreeModelEvent event = new TreeModelEvent(this, path(node.parent),
+                        new int[] {node.parent.indexOf(node)}, new Object[] {node.task});
+                for (TreeModelListener listener : treeListeners) {
+                    listener.treeNodesChanged(event);
+                }
+            }
+        }
+        
+        private void fireStructureChanged(TreePath path) {
+            TreeModelEvent event = new TreeModelEvent(this, path);
+            for (TreeModelListener listener : treeListeners) {
+                listener.treeStructureChanged(event);
+            }
+        }
+        
+        private Node node(Object value) {
+            return value == ROOT ? root : nodes.get(((Task) value).id);
+        }
+        
+        @Override
+        public Object getRoot() {
+            return ROOT;
+        }
+        
+        @Override
+        public Object getChild(Object parent, int index) {
+            return node(parent).children.get(index).task;
+        }
+        
+        @Override
+        public int getChildCount(Object parent) {
+            Node node = node(parent);
+            return node == null ? 0 : node.children.size();
+        }
+        
+        @Override
+        public boolean isLeaf(Object value) {
+            return getChildCount(value) == 0;
+        }
+        
+        @Override
+        public int getIndexOfChild(Object parent, Object child) {
+            Node node = node(parent);
+            if (node == null || !(child instanceof Task)) return -1;
+            Node found = nodes.get(((Task) child).id);
+            return found == null || found.parent != node ? -1 : node.indexOf(found);
+        }
+        
+        @Override
+        public void valueForPathChanged(TreePath path, Object newValue) {
+        }
+        
+        @Override
+        public void addTreeModelListener(TreeModelListener listener) {
+            treeListeners.add(listener);
+        }
+        
+        @Override
+        public void removeTreeModelListener(TreeModelListener listener) {
+            treeListeners.remove(listener);
+        }
+    }
+
+    // roaring-style compressed bitmap: 2^16-value chunks held as sorted char arrays, or 1024 words once dense
+    static class Bitmap {
+        private static final int ARRAY_MAX = 4096;
+        
+        private char[] keys = new char[4];
+        private Object[] containers = new Object[4];
+        private int[] cards = new int[4];
+        private int size;
+        
+        boolean contains(int value) {
+            int i = find((char) (value >>> 16));
+            if (i < 0) return false;
+            char low = (char) value;
+            Object c = containers[i];
+            if (c instanceof long[]) {
+                return (((long[]) c)[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch((char[]) c, 0, cards[i], low) >= 0;
+        }
+        
+        void add(int value) {
+            char key = (char) (value >>> 16);
+            char low = (char) value;
+            int i = find(key);
+            if (i < 0) {
+                i = -i - 1;
+                insert(i, key, new char[4], 0);
+            }
+            Object c = containers[i];
+            if (c instanceof long[]) {
+                long[] words = (long[]) c;
+                if ((words[low >>> 6] & (1L << low)) == 0) {
+                    words[low >>> 6] |= 1L << low;
+                    cards[i]++;
+                }
+                return;
+            }
+            char[] array = (char[]) c;
+            int n = cards[i];
+            int j = Arrays.binarySearch(array, 0, n, low);
+            if (j >= 0) return;
+            j = -j - 1;
+            if (n == ARRAY_MAX) {
+                long[] words = words(array, n);
+                words[low >>> 6] |= 1L << low;
+                containers[i] = words;
+            } else {
+                if (n == array.length) {
+                    array = Arrays.copyOf(array, Math.min(ARRAY_MAX, n * 2));
+                    containers[i] = array;
+                }
+                System.arraycopy(array, j, array, j + 1, n - j);
+                array[j] = low;
+            }
+            cards[i] = n + 1;
+        }
+        
+        void remove(int value) {
+            int i = find((char) (value >>> 16));
+            if (i < 0) return;
+            char low = (char) value;
+            Object c = containers[i];
+            if (c instanceof long[]) {
+                long[] words = (long[]) c;
+                if ((words[low >>> 6] & (1L << low)) == 0) return;
+                words[low >>> 6] &= ~(1L << low);
+                if (--cards[i] <= ARRAY_MAX) {
+                    containers[i] = array(words, cards[i]);
+                }
+            } else {
+                char[] array = (char[]) c;
+                int j = Arrays.binarySearch(array, 0, cards[i], low);
+                if (j < 0) return;
+                System.arraycopy(array, j + 1, array, j, cards[i] - j - 1);
+                cards[i]--;
+            }
+            if (cards[i] == 0) {
+                System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+                System.arraycopy(cards, i + 1, cards, i, size - i - 1);
+                containers[--size] = null;
+            }
+        }
+        
+        int cardinality() {
+            int total = 0;
+            for (int i = 0; i < size; i++) {
+                total += cards[i];
+            }
+            return total;
+        }
+        
+        long sizeInBytes() {
+            long bytes = 64 + keys.length * 2L + containers.length * 8L + cards.length * 4L;
+            for (int i = 0; i < size; i++) {
+                Object c = containers[i];
+                bytes += 16 + (c instanceof long[] ? ((long[]) c).length * 8L : ((char[]) c).length * 2L);
+            }
+            return bytes;
+        }
+        
+        void forEach(IntConsumer action) {
+            for (int i = 0; i < size; i++) {
+                int high = keys[i] << 16;
+                Object c = containers[i];
+                if (c instanceof long[]) {
+                    long[] words = (long[]) c;
+                    for (int w = 0; w < words.length; w++) {
+                        for (long word = words[w]; word != 0; word &= word - 1) {
+                            action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                        }
+                    }
+                } else {
+                    char[] array = (char[]) c;
+                    for (int j = 0; j < cards[i]; j++) {
+                        action.accept(high | array[j]);
+                    }
+                }
+            }
+        }
+        
+        Bitmap and(Bitmap other) {
+            Bitmap result = new Bitmap();
+            int i = 0, j = 0;
+            while (i < size && j < other.size) {
+                if (keys[i] < other.keys[j]) {
+                    i++;
+                } else if (keys[i] > other.keys[j]) {
+                    j++;
+                } else {
+                    Object a = containers[i], b = other.containers[j];
+                    if (a instanceof char[] && b instanceof char[]) {
+                        result.append(keys[i], intersect((char[]) a, cards[i], (char[]) b, other.cards[j]));
+                    } else {
+                        long[] words = words(a, cards[i]).clone();
+                        long[] with = words(b, other.cards[j]);
+                        for (int w = 0; w < words.length; w++) {
+                            words[w] &= with[w];
+                        }
+                        result.append(keys[i], words);
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+        
+        Bitmap or(Bitmap other) {
+            Bitmap result = new Bitmap();
+            int i = 0, j = 0;
+            while (i < size || j < other.size) {
+                if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                    result.append(keys[i], copy(containers[i], cards[i]));
+                    i++;
+                } else if (i == size || keys[i] > other.keys[j]) {
+                    result.append(other.keys[j], copy(other.containers[j], other.cards[j]));
+                    j++;
+                } else {
+                    long[] words = words(containers[i], cards[i]).clone();
+                    long[] with = words(other.containers[j], other.cards[j]);
+                    for (int w = 0; w < words.length; w++) {
+                        words[w] |= with[w];
+                    }
+                    result.append(keys[i], words);
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+        
+        Bitmap andNot(Bitmap other) {
+            Bitmap result = new Bitmap();
+            int j = 0;
+            for (int i = 0; i < size; i++) {
+                while (j < other.size && other.keys[j] < keys[i]) j++;
+                if (j == other.size || other.keys[j] != keys[i]) {
+                    result.append(keys[i], copy(containers[i], cards[i]));
+                    continue;
+                }
+                long[] words = words(containers[i], cards[i]).clone();
+                long[] without = words(other.containers[j], other.cards[j]);
+                for (int w = 0; w < words.length; w++) {
+                    words[w] &= ~without[w];
+                }
+                result.append(keys[i], words);
+            }
+            return result;
+        }
+        
+        private int find(char key) {
+            int lo = 0, hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key) lo = mid + 1;
+                else if (keys[mid] > key) hi = mid - 1;
+                else return mid;
+            }
+            return -(lo + 1);
+        }
+        
+        private void insert(int i, char key, Object container, int card) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+                cards = Arrays.copyOf(cards, size * 2);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(containers, i, containers, i + 1, size - i);
+            System.arraycopy(cards, i, cards, i + 1, size - i);
+            keys[i] = key;
+            containers[i] = container;
+            cards[i] = card;
+            size++;
+        }
+        
+        // results are built in key order, so every container is appended at the end
+        private void append(char key, Object container) {
+            int card = container instanceof long[] ? bitCount((long[]) container) : ((char[]) container).length;
+            if (card == 0) return;
+            if (container instanceof long[] && card <= ARRAY_MAX) {
+                container = array((long[]) container, card);
+            }
+            insert(size, key, container, card);
+        }
+        
+        private static Object copy(Object container, int card) {
+            return container instanceof long[] ? ((long[]) container).clone() : Arrays.copyOf((char[]) container, card);
+        }
+        
+        private static char[] intersect(char[] a, int na, char[] b, int nb) {
+            char[] out = new char[Math.min(na, nb)];
+            int i = 0, j = 0, n = 0;
+            while (i < na && j < nb) {
+                if (a[i] < b[j]) i++;
+                else if (a[i] > b[j]) j++;
+                else {
+                    out[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+        
+        private static long[] words(Object container, int card) {
+            if (container instanceof long[]) return (long[]) container;
+            long[] words = new long[1024];
+            char[] array = (char[]) container;
+            for (int i = 0; i < card; i++) {
+                words[array[i] >>> 6] |= 1L << array[i];
+            }
+            return words;
+        }
+        
+        private static char[] array(long[] words, int card) {
+            char[] array = new char[card];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    array[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                }
+            }
+            return array;
+        }
+        
+        private static int bitCount(long[] words) {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+    }
+
+    // every task holds a dense slot; each tag maps to the bitmap of slots carrying it
+    static class TagIndex implements TaskService.ChangeListener {
+        private final TaskService service;
+        private final Map<String, Bitmap> byTag = new HashMap<>();
+        private final Map<Task, Integer> slots = new IdentityHashMap<>();
+        private final Bitmap all = new Bitmap();
+        private Task[] bySlot = new Task[1024];
+        private String[] indexedTags = new String[1024];
+        private int[] free = new int[16];
+        private int freeCount, nextSlot;
+        
+        TagIndex(TaskService service) {
+            this.service = service;
+            rebuild();
+        }
+        
+        @Override
+        public void taskChanged(String op, Task task, int index, boolean remote) {
+            if (task == null) {
+                rebuild();
+            } else if (TaskJournal.REMOVE.equals(op)) {
+                remove(task);
+            } else if (!TaskJournal.MOVE.equals(op)) {
+                Integer slot = slots.get(task);
+                if (slot == null) {
+                    add(task);
+                } else if (!Objects.equals(indexedTags[slot], task.tags)) {
+                    tag(slot, indexedTags[slot], false);
+                    tag(slot, task.tags, true);
+                    indexedTags[slot] = task.tags;
+                }
+            }
+        }
+        
+        Set<String> tags() {
+            return new TreeSet<>(byTag.keySet());
+        }
+        
+        int count(String tag) {
+            Bitmap bitmap = byTag.get(tag);
+            return bitmap == null ? 0 : bitmap.cardinality();
+        }
+        
+        Integer slot(Task task) {
+            return slots.get(task);
+        }
+        
+        Task task(int slot) {
+            return bySlot[slot];
+        }
+        
+        // "work AND urgent AND NOT blocked"; adjacent tags are ANDed and parentheses group
+        Bitmap query(String expression) {
+            java.util.List<String> tokens = new ArrayList<>();
+            Matcher m = Pattern.compile("\\(|\\)|[^\\s()]+").matcher(expression);
+            while (m.find()) {
+                tokens.add(m.group());
+            }
+            int[] pos = {0};
+            Bitmap result = parseOr(tokens, pos);
+            if (pos[0] != tokens.size()) {
+                throw new IllegalArgumentException("unexpected '" + tokens.get(pos[0]) + "'");
+            }
+            return result;
+        }
+        
+        private Bitmap parseOr(java.util.List<String> tokens, int[] pos) {
+            Bitmap result = parseAnd(tokens, pos);
+            while (pos[0] < tokens.size() && tokens.get(pos[0]).equalsIgnoreCase("OR")) {
+                pos[0]++;
+                result = result.or(parseAnd(tokens, pos));
+            }
+            return result;
+        }
+        
+        private Bitmap parseAnd(java.util.List<String> tokens, int[] pos) {
+            Bitmap result = parseNot(tokens, pos);
+            while (pos[0] < tokens.size() && !tokens.get(pos[0]).equalsIgnoreCase("OR")
+                    && !tokens.get(pos[0]).equals(")")) {
+                if (tokens.get(pos[0]).equalsIgnoreCase("AND")) {
+                    pos[0]++;
+                }
+                result = result.and(parseNot(tokens, pos));
+            }
+            return result;
+        }
+        
+        private Bitmap parseNot(java.util.List<String> tokens, int[] pos) {
+            if (pos[0] == tokens.size()) {
+                throw new IllegalArgumentException("expression ends too early");
+            }
+            String token = tokens.get(pos[0]++);
+            if (token.equalsIgnoreCase("NOT")) {
+                return all.andNot(parseNot(tokens, pos));
+            }
+            if (token.equals("(")) {
+                Bitmap inner = parseOr(tokens, pos);
+                if (pos[0] == tokens.size() || !tokens.get(pos[0]++).equals(")")) {
+                    throw new IllegalArgumentException("missing ')'");
+                }
+                return inner;
+            }
+            if (token.equals(")") || token.equalsIgnoreCase("AND") || token.equalsIgnoreCase("OR")) {
+                throw new IllegalArgumentException("unexpected '" + token + "'");
+            }
+            Bitmap bitmap = byTag.get(Task.normalizeTags(token));
+            return bitmap != null ? bitmap : new Bitmap();
+        }
+        
+        private void rebuild() {
+            byTag.clear();
+            slots.clear();
+            for (int i = 0; i < nextSlot; i++) {
+                all.remove(i);
+            }
+            Arrays.fill(bySlot, null);
+            Arrays.fill(indexedTags, null);
+            freeCount = nextSlot = 0;
+            for (int i = 0; i < service.model.getSize(); i++) {
+                add(service.model.getElementAt(i));
+            }
+        }
+        
+        private void add(Task task) {
+            int slot = freeCount > 0 ? free[--freeCount] : nextSlot++;
+            if (slot == bySlot.length) {
+                bySlot = Arrays.copyOf(bySlot, slot * 2);
+                indexedTags = Arrays.copyOf(indexedTags, slot * 2);
+            }
+            bySlot[slot] = task;
+            indexedTags[slot] = task.tags;
+            slots.put(task, slot);
+            all.add(slot);
+            tag(slot, task.tags, true);
+        }
+        
+        private void remove(Task task) {
+            Integer slot = slots.remove(task);
+            if (slot == null) return;
+            tag(slot, indexedTags[slot], false);
+            all.remove(slot);
+            bySlot[slot] = null;
+            indexedTags[slot] = null;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = slot;
+        }
+        
+        private void tag(int slot, String tags, boolean on) {
+            for (String tag : Task.tagList(tags)) {
+                if (on) {
+                    byTag.computeIfAbsent(tag, k -> new Bitmap()).add(slot);
+                } else {
+                    Bitmap bitmap = byTag.get(tag);
+                    if (bitmap == null) continue;
+                    bitmap.remove(slot);
+                    if (bitmap.cardinality() == 0) byTag.remove(tag);
+                }
+            }
+        }
+    }
+
+    // trigram postings over task text for the command palette; queried off the EDT, so access is synchronized
+    static class TrigramIndex implements TaskService.ChangeListener, CacheManager.Resource {
+        static final int CHECK_INTERVAL = 4096;
+        // changes queued by the EDT beyond this are dropped and the next search takes a fresh snapshot instead
+        static final int MAX_QUEUED = 4096;
+        
+        static class Match {
+            final Task task;
+            final double score;
+            
+            Match(Task task, double score) {
+                this.task = task;
+                this.score = score;
+            }
+        }
+        
+        private final TaskService service;
+        private Map<Long, Bitmap> postings = new HashMap<>();
+        private Map<Task, Integer> slots = new IdentityHashMap<>();
+        private Task[] bySlot = new Task[1024];
+        private String[] indexedText = new String[1024];
+        private int[] free = new int[16];
+        private int freeCount, nextSlot;
+        // built by the first search on the palette thread rather than at startup, and again after a reload
+        private boolean stale = true;
+        // the EDT only queues its changes, so it never waits on a search; searches apply them under the monitor.
+        // Set when queued changes are no longer enough and the model has to be read again
+        private final ConcurrentLinkedQueue<Change> queued = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedCount = new AtomicInteger();
+        private volatile boolean resync = true;
+        private final Object rebuilding = new Object();
+        
+        private static class Change {
+            final String op;
+            final Task task;
+            
+            Change(String op, Task task) {
+                this.op = op;
+                this.task = task;
+            }
+        }
+        
+        TrigramIndex(TaskService service) {
+            this.service = service;
+        }
+        
+        @Override
+        public void taskChanged(String op, Task task, int index, boolean remote) {
+            if (resync) return;
+            if (task == null || queuedCount.incrementAndGet() > MAX_QUEUED) {
+                resync = true;
+                queued.clear();
+                return;
+            }
+            queued.add(new Change(op, task));
+        }
+        
+        // applies what was queued when the search started, so a busy EDT cannot keep it draining; a change
+        // cleared by the EDT leaves resync set, which is checked again at the end
+        private void drain() {
+            Change change;
+            for (int n = queuedCount.get(); n > 0 && !resync && (change = queued.poll()) != null; n--) {
+                queuedCount.decrementAndGet();
+                apply(change.op, change.task);
+            }
+            if (resync) stale = true;
+        }
+        
+        private void apply(String op, Task task) {
+            if (TaskJournal.REMOVE.equals(op)) {
+                remove(task);
+            } else if (!TaskJournal.MOVE.equals(op)) {
+                Integer slot = slots.get(task);
+                String text = text(task);
+                if (slot == null) {
+                    add(task);
+                } else if (!text.equals(indexedText[slot])) {
+                    index(slot, indexedText[slot], false);
+                    index(slot, text, true);
+                    indexedText[slot] = text;
+                }
+            }
+        }
+        
+        @Override
+        public synchronized long weight() {
+            if (stale) return 0;
+            long bytes = slots.size() * 64L + bySlot.length * 16L;
+            for (int slot = 0; slot < nextSlot; slot++) {
+                if (indexedText[slot] != null) bytes += 40 + indexedText[slot].length() * 2L;
+            }
+            for (Bitmap bitmap : postings.values()) {
+                bytes += 48 + bitmap.sizeInBytes();
+            }
+            return bytes;
+        }
+        
+        // the index is all or nothing; the next search rebuilds it
+        @Override
+        public synchronized void shrink(long targetBytes) {
+            if (stale || weight() <= targetBytes) return;
+            postings.clear();
+            slots.clear();
+            bySlot = new Task[1024];
+            indexedText = new String[1024];
+            freeCount = nextSlot = 0;
+            stale = true;
+            resync = true;
+            queued.clear();
+        }
+        
+        // content and tags, lowercased and padded so a query can anchor on word starts
+        static String text(Task task) {
+            String tags = task.tags;
+            return " " + (tags == null || tags.isEmpty() ? task.content : task.content + " " + tags).toLowerCase() + " ";
+        }
+        
+        private static long trigram(String text, int i) {
+            return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+        
+        // candidates must share half the query's trigrams, which tolerates a typo or two;
+        // returns null once cancelled reports true, checked between postings and every few thousand rows
+        java.util.List<Match> search(String query, int limit, java.util.function.BooleanSupplier cancelled) {
+            if (cancelled.getAsBoolean()) return null;
+            synchronized (this) {
+                if (!stale) drain();
+                if (!stale) return searchIndexed(query, limit, cancelled);
+            }
+            if (!rebuild()) return null;
+            // under heavy churn the queue may overflow while the index is built; it still answers this search,
+            // and the next one starts over
+            synchronized (this) {
+                return searchIndexed(query, limit, cancelled);
+            }
+        }
+        
+        private synchronized java.util.List<Match> searchIndexed(String query, int limit,
+                java.util.function.BooleanSupplier cancelled) {
+            String q = query.trim().toLowerCase();
+            PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(m -> m.score));
+            if (q.length() < 3) {
+                for (int slot = 0; slot < nextSlot; slot++) {
+                    if (slot % CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) return null;
+                    if (bySlot[slot] != null && indexedText[slot].contains(q)) {
+                        offer(best, limit, new Match(bySlot[slot], score(q, indexedText[slot], 1)));
+                    }
+                }
+                return sorted(best);
+            }
+            String padded = " " + q + " ";
+            Set<Long> grams = new LinkedHashSet<>();
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                grams.add(trigram(padded, i));
+            }
+            int[] counts = new int[nextSlot];
+            for (long gram : grams) {
+                if (cancelled.getAsBoolean()) return null;
+                Bitmap bitmap = postings.get(gram);
+                if (bitmap != null) {
+                    bitmap.forEach(slot -> counts[slot]++);
+                }
+            }
+            int needed = Math.max(1, (grams.size() + 1) / 2);
+            for (int slot = 0; slot < counts.length; slot++) {
+                if (slot % CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) return null;
+                if (counts[slot] >= needed) {
+                    offer(best, limit, new Match(bySlot[slot],
+                            score(q, indexedText[slot], counts[slot] / (double) grams.size())));
+                }
+            }
+            return sorted(best);
+        }
+        
+        // trigram overlap, lifted for a whole-substring hit and more for one at a word start; shorter text breaks ties
+        static double score(String query, String text, double overlap) {
+            int at = text.indexOf(query);
+            double score = overlap;
+            if (at >= 0) {
+                score += text.charAt(Math.max(0, at - 1)) == ' ' ? 1.5 : 1.0;
+            } else if (isSubsequence(query, text)) {
+                score += 0.25;
+            }
+            return score - text.length() / 1e6;
+        }
+        
+        static boolean isSubsequence(String query, String text) {
+            int j = 0;
+            for (int i = 0; i < text.length() && j < query.length(); i++) {
+                if (text.charAt(i) == query.charAt(j)) j++;
+            }
+            return j == query.length();
+        }
+        
+        private static void offer(PriorityQueue<Match> best, int limit, Match match) {
+            if (best.size() < limit) {
+                best.add(match);
+            } else if (match.score > best.peek().score) {
+                best.poll();
+                best.add(match);
+            }
+        }
+        
+        private static java.util.List<Match> sorted(PriorityQueue<Match> best) {
+            java.util.List<Match> matches = new ArrayList<>(best);
+            matches.sort((a, b) -> Double.compare(b.score, a.score));
+            return matches;
+        }
+        
+        // the model is only read on the EDT, which may itself wait on this monitor to shrink the index, so the
+        // snapshot is taken there without the lock and indexed off it. Changes queued after the snapshot belong to
+        // the new index and are applied by the next search. Returns false when the EDT could not be reached
+        private boolean rebuild() {
+            synchronized (rebuilding) {
+                synchronized (this) {
+                    if (!stale) return true;
+                }
+                Object[] tasks;
+                try {
+                    tasks = SyncServer.onEdt(() -> {
+                        queued.clear();
+                        queuedCount.set(0);
+                        resync = false;
+                        return service.model.toArray();
+                    });
+                } catch (Exception e) {
+                    return false;
+                }
+                TrigramIndex built = new TrigramIndex(service);
+                for (Object task : tasks) {
+                    built.add((Task) task);
+                }
+                synchronized (this) {
+                    postings = built.postings;
+                    slots = built.slots;
+                    bySlot = built.bySlot;
+                    indexedText = built.indexedText;
+                    free = built.free;
+                    freeCount = built.freeCount;
+                    nextSlot = built.nextSlot;
+                    stale = false;
+                    drain();
+                }
+                return true;
+            }
+        }
+        
+        private void add(Task task) {
+            int slot = freeCount > 0 ? free[--freeCount] : nextSlot++;
+            if (slot == bySlot.length) {
+                bySlot = Arrays.copyOf(bySlot, slot * 2);
+                indexedText = Arrays.copyOf(indexedText, slot * 2);
+            }
+            String text = text(task);
+            bySlot[slot] = task;
+            indexedText[slot] = text;
+            slots.put(task, slot);
+            index(slot, text, true);
+        }
+        
+        private void remove(Task task) {
+            Integer slot = slots.remove(task);
+            if (slot == null) return;
+            index(slot, indexedText[slot], false);
+            bySlot[slot] = null;
+            indexedText[slot] = null;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = slot;
+        }
+        
+        private void index(int slot, String text, boolean on) {
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                long gram = trigram(text, i);
+                if (on) {
+                    postings.computeIfAbsent(gram, k -> new Bitmap()).add(slot);
+                } else {
+                    Bitmap bitmap = postings.get(gram);
+                    if (bitmap == null) continue;
+                    bitmap.remove(slot);
+                    if (bitmap.cardinality() == 0) postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    // day-bucketed counters derived from history; kept live per event and rebuilt by a parallel scan
+    static class Analytics {
+        static final int ADDED = 0, COMPLETED = 1, CLOSED = 2, CYCLE_COUNT = 3, CYCLE_MINUTES = 4;
+        private static final int FIELDS = 5;
+        private static final int SCAN_THRESHOLD = 8192;
+        // per task: first added, completed and removed times, then when it left the backlog (epoch seconds, 0 = never)
+        private static final int T_ADDED = 0, T_COMPLETED = 1, T_REMOVED = 2, T_CLOSED = 3;
+        
+        private final Map<Long, long[]> days;
+        private final Map<Long, long[]> tasks;
+        private final DayClock clock = new DayClock();
+        
+        Analytics() {
+            this(new HashMap<>(), new HashMap<>());
+        }
+        
+        private Analytics(Map<Long, long[]> days, Map<Long, long[]> tasks) {
+            this.days = days;
+            this.tasks = tasks;
+        }
+        
+        static Analytics scan(java.util.List<HistoryLog.Entry> entries) {
+            Partial partial = ForkJoinPool.commonPool().invoke(new Scan(entries, 0, entries.size()));
+            Analytics analytics = new Analytics(partial.days, partial.tasks);
+            long[] clears = partial.clears.stream().mapToLong(Long::longValue).sorted().toArray();
+            for (long[] task : partial.tasks.values()) {
+                if (task[T_ADDED] == 0) continue;
+                int i = Arrays.binarySearch(clears, task[T_ADDED]);
+                long cleared = i >= 0 ? clears[i] : -i - 1 < clears.length ? clears[-i - 1] : 0;
+                long closed = earliest(earliest(task[T_COMPLETED], task[T_REMOVED]), cleared);
+                if (closed != 0) {
+                    analytics.close(task, closed, closed == task[T_COMPLETED]);
+                }
+            }
+            return analytics;
+        }
+        
+        void record(HistoryLog.Entry entry) {
+            String action = action(entry);
+            if (action == null) return;
+            long[] task = entry.taskId != 0 ? tasks.get(entry.taskId) : null;
+            switch (action) {
+                case "ADDED":
+                    count(entry.time, ADDED);
+                    if (entry.taskId != 0 && task == null) {
+                        tasks.put(entry.taskId, new long[] {entry.time, 0, 0, 0});
+                    }
+                    break;
+                case "COMPLETED":
+                    count(entry.time, COMPLETED);
+                    if (task != null && entry.detail == null && task[T_COMPLETED] == 0) {
+                        task[T_COMPLETED] = entry.time;
+                        close(task, entry.time, true);
+                    }
+                    break;
+                case "REMOVED":
+                    if (task != null && task[T_REMOVED] == 0) {
+                        task[T_REMOVED] = entry.time;
+                        close(task, entry.time, false);
+                    }
+                    break;
+                case "CLEARED ALL":
+                    for (long[] open : tasks.values()) {
+                        close(open, entry.time, false);
+                    }
+                    break;
+                default:
+            }
+        }
+        
+        // the history actions that matter here, folded to one name each
+        static String action(HistoryLog.Entry entry) {
+            if (entry.time == 0 || entry.action == null) return null;
+            String action = entry.action.trim();
+            if (action.equals("ADDED") || action.equals("DUPLICATED")) return "ADDED";
+            if (action.equals("COMPLETED")) return "COMPLETED";
+            if (action.equals("REMOVED") || action.equals("CLEARED COMPLETED")) return "REMOVED";
+            if (action.endsWith("CLEARED ALL")) return "CLEARED ALL";
+            return null;
+        }
+        
+        private void close(long[] task, long time, boolean completed) {
+            if (task[T_ADDED] == 0 || task[T_CLOSED] != 0 || time < task[T_ADDED]) return;
+            task[T_CLOSED] = time;
+            long[] day = bucket(days, clock.day(time));
+            day[CLOSED]++;
+            if (completed) {
+                day[CYCLE_COUNT]++;
+                day[CYCLE_MINUTES] += (time - task[T_ADDED]) / 60;
+            }
+        }
+        
+        private void count(long time, int field) {
+            bucket(days, clock.day(time))[field]++;
+        }
+        
+        private static long[] bucket(Map<Long, long[]> days, long day) {
+            return days.computeIfAbsent(day, k -> new long[FIELDS]);
+        }
+        
+        // history is nearly chronological, so the day last looked up almost always answers the next one
+        private static class DayClock {
+            private final ZoneId zone = ZoneId.systemDefault();
+            private long start = 1, end = 0, day;
+            
+            long day(long time) {
+                if (time < start || time >= end) {
+                    LocalDate date = Instant.ofEpochSecond(time).atZone(zone).toLocalDate();
+                    day = date.toEpochDay();
+                    start = date.atStartOfDay(zone).toEpochSecond();
+                    end = date.plusDays(1).atStartOfDay(zone).toEpochSecond();
+                }
+                return day;
+            }
+        }
+        
+        private static long earliest(long a, long b) {
+            return a == 0 ? b : b == 0 ? a : Math.min(a, b);
+        }
+        
+        long firstDay() {
+            long first = LocalDate.now().toEpochDay();
+            for (long day : days.keySet()) {
+                first = Math.min(first, day);
+            }
+            return first;
+        }
+        
+        // sums of one field over buckets of the given width, ending with the bucket that holds toDay
+        long[] series(int field, long fromDay, long toDay, int width) {
+            long[] out = new long[(int) ((toDay - fromDay) / width + 1)];
+            for (int i = 0; i < out.length; i++) {
+                for (long day = toDay - (long) (out.length - 1 - i) * width, end = day + width; day < end; day++) {
+                    long[] counters = days.get(day);
+                    if (counters != null) out[i] += counters[field];
+                }
+            }
+            return out;
+        }
+        
+        // open tasks at the end of each bucket
+        long[] backlog(long fromDay, long toDay, int width) {
+            long[] out = new long[(int) ((toDay - fromDay) / width + 1)];
+            long start = toDay - (long) (out.length - 1) * width;
+            long open = 0;
+            for (Map.Entry<Long, long[]> day : days.entrySet()) {
+                if (day.getKey() < start) {
+                    open += day.getValue()[ADDED] - day.getValue()[CLOSED];
+                }
+            }
+            long[] added = series(ADDED, fromDay, toDay, width);
+            long[] closed = series(CLOSED, fromDay, toDay, width);
+            for (int i = 0; i < out.length; i++) {
+                open += added[i] - closed[i];
+                out[i] = Math.max(0, open);
+            }
+            return out;
+        }
+        
+        private static class Partial {
+            final Map<Long, long[]> days = new HashMap<>();
+            final Map<Long, long[]> tasks = new HashMap<>();
+            final java.util.List<Long> clears = new ArrayList<>();
+            
+            Partial merge(Partial other) {
+                other.days.forEach((day, counters) -> {
+                    long[] mine = bucket(days, day);
+                    for (int i = 0; i < FIELDS; i++) mine[i] += counters[i];
+                });
+                other.tasks.forEach((id, times) -> tasks.merge(id, times, (a, b) -> {
+                    for (int i = 0; i < a.length; i++) a[i] = earliest(a[i], b[i]);
+                    return a;
+                }));
+                clears.addAll(other.clears);
+                return this;
+            }
+        }
+        
+        // chunks only count and collect per-task times; closing tasks needs the merged view
+        private static class Scan extends RecursiveTask<Partial> {
+            private static final long serialVersionUID = 2116869600437964909L;
+            private final java.util.List<HistoryLog.Entry> entries;
+            private final int from, to;
+            
+            Scan(java.util.List<HistoryLog.Entry> entries, int from, int to) {
+                this.entries = entries;
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected Partial compute() {
+                if (to - from > SCAN_THRESHOLD) {
+                    int mid = (from + to) >>> 1;
+                    Scan right = new Scan(entries, mid, to);
+                    right.fork();
+                    return new Scan(entries, from, mid).compute().merge(right.join());
+                }
+                Partial partial = new Partial();
+                DayClock clock = new DayClock();
+                for (int i = from; i < to; i++) {
+                    HistoryLog.Entry entry = entries.get(i);
+                    String action = action(entry);
+                    if (action == null) continue;
+                    int slot = -1;
+                    switch (action) {
+                        case "ADDED":
+                            bucket(partial.days, clock.day(entry.time))[ADDED]++;
+                            slot = T_ADDED;
+                            break;
+                        case "COMPLETED":
+                            bucket(partial.days, clock.day(entry.time))[COMPLETED]++;
+                            slot = entry.detail == null ? T_COMPLETED : -1;
+                            break;
+                        case "REMOVED":
+                            slot = T_REMOVED;
+                            break;
+                        default:
+                            partial.clears.add(entry.time);
+                    }
+                    if (slot >= 0 && entry.taskId != 0) {
+                        long[] times = partial.tasks.computeIfAbsent(entry.taskId, k -> new long[4]);
+                        times[slot] = earliest(times[slot], entry.time);
+                    }
+                }
+                return partial;
+            }
+        }
+    }
+
+    static class TaskService {
+        static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+        
+        interface HistorySink {
+            void log(HistoryLog.Entry entry);
+        }
+        
+        interface ChangeListener {
+            void taskChanged(String op, Task task, int index, boolean remote);
+        }
+        
+        final DefaultListModel<Task> model = new DefaultListModel<>();
+        private final File tasksFile;
+        private final File journalFile;
+        private final HistorySink history;
+        private final java.util.List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+        private Consumer<IOException> errorHandler = Throwable::printStackTrace;
+        private final FsyncPolicy fsync = FsyncPolicy.configured();
+        private final StoragePipeline pipeline = StoragePipeline.configured();
+        // set while the task file cannot be read, e.g. without its passphrase, so it is never saved over
+        private volatile IOException unreadable;
+        private TaskJournal journal;
+        private volatile boolean loading;
+        
+        TaskService(File tasksFile, File journalFile, HistorySink history) {
+            this.tasksFile = tasksFile;
+            this.journalFile = journalFile;
+            this.history = history;
+        }
+        
+        void setErrorHandler(Consumer<IOException> errorHandler) {
+            this.errorHandler = errorHandler;
+        }
+        
+        void addListener(ChangeListener listener) {
+            listeners.add(listener);
+        }
+        
+        void removeListener(ChangeListener listener) {
+            listeners.remove(listener);
+        }
+        
+        static String currentTime() {
+            return LocalDateTime.now().format(TIME_FORMAT);
+        }
+        
+        Task add(String content, Priority priority, Category category) {
+            Task task = new Task(content, priority, category);
+            model.addElement(task);
+            fire(TaskJournal.ADD, task, model.getSize() - 1, false);
+            history.log(HistoryLog.task(" ADDED", task));
+            return task;
+        }
+        
+        // bulk inserts are announced once through announceBulkChange() instead of per task
+        void addAll(java.util.List<Task> tasks) {
+            model.addAll(tasks);
+        }
+        
+        // call after saving, other instances reload the snapshot when they see this
+        void announceBulkChange() {
+            fire(TaskJournal.RELOAD, null, -1, false);
+        }
+        
+        int removeArchived(java.util.List<Task> archived) {
+            Set<Task> gone = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+            gone.addAll(archived);
+            java.util.List<Task> kept = new ArrayList<>(model.getSize());
+            for (int i = 0; i < model.getSize(); i++) {
+                Task task = model.getElementAt(i);
+                if (!gone.contains(task)) kept.add(task);
+            }
+            int removed = model.getSize() - kept.size();
+            model.clear();
+            model.addAll(kept);
+            history.log(HistoryLog.text(" ARCHIVED", removed + " completed tasks"));
+            return removed;
+        }
+        
+        void restoreArchived(Task task) {
+            if (indexOf(task.id) >= 0) return;
+            model.addElement(task);
+            fire(TaskJournal.ADD, task, model.getSize() - 1, false);
+            history.log(HistoryLog.task(" RESTORED", task));
+        }
+        
+        Task remove(int index) {
+            Task task = model.remove(index);
+            fire(TaskJournal.REMOVE, task, -1, false);
+            history.log(HistoryLog.task(" REMOVED", task));
+            return task;
+        }
+        
+        int clearAll() {
+            int taskCount = model.getSize();
+            model.clear();
+            fire(TaskJournal.CLEAR, null, -1, false);
+            history.log(HistoryLog.text("🧹 CLEARED ALL", taskCount + " tasks removed"));
+            return taskCount;
+        }
+        
+        int clearCompleted() {
+            int removed = 0;
+            for (int i = model.getSize() - 1; i >= 0; i--) {
+                Task task = model.getElementAt(i);
+                if (task.completed) {
+                    model.remove(i);
+                    fire(TaskJournal.REMOVE, task, -1, false);
+                    history.log(HistoryLog.task(" CLEARED COMPLETED", task));
+                    removed++;
+                }
+            }
+            return removed;
+        }
+        
+        boolean complete(int index) {
+            Task task = model.getElementAt(index);
+            if (task.completed) return false;
+            if (task.rule() != null) {
+                return completeOccurrence(index, task);
+            }
+            task.completed = true;
+            task.completedAt = currentTime();
+            model.set(index, task);
+            fire(TaskJournal.UPDATE, task, -1, false);
+            history.log(HistoryLog.task(" COMPLETED", task));
+            return true;
+        }
+        
+        // a recurring task stays open; completing it moves past the pending occurrence
+        // and any others already missed
+        private boolean completeOccurrence(int index, Task task) {
+            LocalDateTime occurrence = task.nextOccurrence();
+            if (occurrence == null) return false;
+            LocalDateTime now = LocalDateTime.now();
+            task.recurrenceFrom = (occurrence.isAfter(now) ? occurrence : now).format(Task.CREATED_FORMAT);
+            task.completedAt = currentTime();
+            model.set(index, task);
+            fire(TaskJournal.UPDATE, task, -1, false);
+            history.log(HistoryLog.task(" COMPLETED", task, occurrence.format(Task.CREATED_FORMAT)));
+            return true;
+        }
+        
+        void setRecurrence(int index, String text) {
+            Task task = model.getElementAt(index);
+            Recurrence rule = text == null || text.trim().isEmpty() ? null : Recurrence.parse(text);
+            task.recurrence = rule != null ? rule.text : null;
+            task.recurrenceFrom = rule != null ? LocalDateTime.now().format(Task.CREATED_FORMAT) : null;
+            model.set(index, task);
+            fire(TaskJournal.UPDATE, task, -1, false);
+            history.log(HistoryLog.task(rule != null ? " REPEATS" : " STOPPED REPEATING", task, task.recurrence));
+        }
+        
+        void setTags(int index, String text) {
+            Task task = model.getElementAt(index);
+            task.tags = Task.normalizeTags(text);
+            model.set(index, task);
+            fire(TaskJournal.UPDATE, task, -1, false);
+            history.log(HistoryLog.task(task.tags != null ? " TAGGED" : " UNTAGGED", task, task.tags));
+        }
+        
+        void edit(int index, String content) {
+            Task task = model.getElementAt(index);
+            String oldContent = task.content;
+            task.content = STRINGS.intern(content);
+            model.set(index, task);
+            fire(TaskJournal.UPDATE, task, -1, false);
+            history.log(HistoryLog.edit(" EDITED", task, oldContent));
+        }
+        
+        Task addSubtask(Task parent, String content, Priority priority, Category category) {
+            Task task = new Task(content, priority, category);
+            task.parentId = parent.id;
+            model.addElement(task);
+            fire(TaskJournal.ADD, task, model.getSize() - 1, false);
+            history.log(HistoryLog.task(" ADDED", task, "subtask of '" + parent.content + "'"));
+            return task;
+        }
+        
+        Task duplicate(int index) {
+            Task original = model.getElementAt(index);
+            Task copy = new Task("Copy of " + original.content, original.priority, original.category);
+            copy.parentId = original.parentId;
+            copy.tags = original.tags;
+            model.addElement(copy);
+            fire(TaskJournal.ADD, copy, model.getSize() - 1, false);
+            history.log(HistoryLog.task(" DUPLICATED", copy));
+            return copy;
+        }
+        
+        void move(int from, int to) {
+            Task task = model.remove(from);
+            model.add(to, task);
+            fire(TaskJournal.MOVE, task, to, false);
+            history.log(HistoryLog.task(to < from ? " MOVED UP" : " MOVED DOWN", task));
+        }
+        
+        int indexOf(long id) {
+            for (int i = 0; i < model.getSize(); i++) {
+                if (model.getElementAt(i).id == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        java.util.List<Task> snapshot() {
+            java.util.List<Task> tasks = new ArrayList<>(model.getSize());
+            for (int i = 0; i < model.getSize(); i++) {
+                tasks.add(model.getElementAt(i));
+            }
+            return tasks;
+        }
+        
+        void save() throws IOException {
+            // until install() the model is empty, not the file's contents; writing it would wipe the file
+            if (loading) return;
+            if (unreadable != null) {
+                throw new IOException("Not saving over " + tasksFile + " because it could not be read: "
+                        + unreadable.getMessage());
+            }
+            withStoreLock(() -> {
+                // catching up first means the snapshot holds every entry before its recorded position
+                TaskJournal.Position position = journal != null ? journal.checkpoint() : null;
+                TaskStore.write(tasksFile.toPath(), snapshot(), fsync, pipeline, position);
+                if (journal != null) {
+                    journal.compactIfNeeded();
+                }
+                return null;
+            });
+        }
+        
+        // the snapshot, then whatever the journal gained after it was written
+        void load() throws IOException {
+            if (!tasksFile.exists()) return;
+            
+            long[] outcome = withStoreLock(() -> {
+                TaskStore.Loaded loaded = readStore();
+                model.clear();
+                model.addAll(loaded.tasks);
+                fire(TaskJournal.RELOAD, null, -1, true);
+                int before = model.getSize();
+                if (journal != null && !journal.replay(loaded.damagedBytes > 0 ? journal.start() : loaded.position)) {
+                    // no position, or one from before the last compaction: the snapshot holds the whole journal
+                    journal.skipToEnd();
+                }
+                return new long[] {loaded.damagedBytes, model.getSize() - before};
+            });
+            if (outcome[0] > 0) {
+                recovered(outcome[0], (int) outcome[1]);
+            }
+        }
+        
+        static class Snapshot {
+            final java.util.List<Task> tasks;
+            final TaskJournal.Position position;
+            final long damagedBytes;
+            
+            Snapshot(java.util.List<Task> tasks, TaskJournal.Position position, long damagedBytes) {
+                this.tasks = tasks;
+                this.position = position;
+                this.damagedBytes = damagedBytes;
+            }
+        }
+        
+        // journal syncs are held back from here until the snapshot is installed
+        void beginLoad() {
+            loading = true;
+        }
+        
+        // safe off the EDT
+        Snapshot read() throws IOException {
+            return withStoreLock(() -> {
+                TaskStore.Loaded loaded = tasksFile.exists() ? readStore() : new TaskStore.Loaded(new ArrayList<>(), 0);
+                TaskJournal.Position position = null;
+                if (journal != null) {
+                    position = loaded.damagedBytes > 0 ? journal.start()
+                            : loaded.position != null ? loaded.position : journal.end();
+                }
+                return new Snapshot(loaded.tasks, position, loaded.damagedBytes);
+            });
+        }
+        
+        private TaskStore.Loaded readStore() throws IOException {
+            try {
+                TaskStore.Loaded loaded = TaskStore.read(tasksFile.toPath(), pipeline);
+                unreadable = null;
+                return loaded;
+            } catch (IOException e) {
+                unreadable = e;
+                throw e;
+            }
+        }
+        
+        // a null snapshot only releases the held-back syncs, e.g. after a failed read
+        void install(Snapshot snapshot) {
+            loading = false;
+            if (snapshot == null) return;
+            model.clear();
+            model.addAll(snapshot.tasks);
+            fire(TaskJournal.RELOAD, null, -1, true);
+            int before = model.getSize();
+            if (journal != null && snapshot.position != null) {
+                try {
+                    if (!journal.replay(snapshot.position)) {
+                        // compacted since the read, so a newer snapshot is on disk
+                        reload();
+                        return;
+                    }
+                } catch (IOException e) {
+                    errorHandler.accept(e);
+                }
+            }
+            if (snapshot.damagedBytes > 0) {
+                recovered(snapshot.damagedBytes, model.getSize() - before);
+            }
+        }
+        
+        // the intact prefix was kept and the whole journal replayed over it; replay is idempotent by task id
+        private void recovered(long damagedBytes, int replayed) {
+            history.log(HistoryLog.text(" RECOVERED", "dropped " + damagedBytes
+                    + " damaged bytes from the task file, replayed " + replayed + " tasks from the journal"));
+            try {
+                save();
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+        }
+        
+        void openJournal() throws IOException {
+            journal = new TaskJournal(journalFile.toPath(), this::applyRemote, this::reload, fsync, pipeline);
+            journal.watch(this::sync);
+        }
+        
+        private void reload() {
+            try {
+                load();
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+        }
+        
+        // --check-recovery: damages the tail of a snapshot whose journal holds a bulk reload, then recovers it
+        static boolean checkRecovery() throws Exception {
+            Path dir = Files.createTempDirectory("todo-recovery");
+            File tasks = dir.resolve("enhanced_tasks.txt").toFile();
+            File journal = dir.resolve("enhanced_tasks.journal").toFile();
+            try {
+                TaskService writer = new TaskService(tasks, journal, entry -> { });
+                java.util.List<Long> ids = SyncServer.onEdt(() -> {
+                    writer.openJournal();
+                    java.util.List<Long> added = new ArrayList<>();
+                    for (int i = 0; i < 5; i++) {
+                        added.add(writer.add("Recovery check " + i, Priority.MEDIUM, Category.WORK).id);
+                    }
+                    writer.save();
+                    writer.announceBulkChange();
+                    added.add(writer.add("Recovery check after reload", Priority.HIGH, Category.WORK).id);
+                    writer.save();
+                    writer.journal.close();
+                    return added;
+                });
+                byte[] bytes = Files.readAllBytes(tasks.toPath());
+                bytes[bytes.length - 5] ^= 1;
+                Files.write(tasks.toPath(), bytes);
+                
+                java.util.List<String> logged = new ArrayList<>();
+                TaskService reader = new TaskService(tasks, journal, entry -> logged.add(entry.action));
+                java.util.List<Long> recovered = SyncServer.onEdt(() -> {
+                    reader.openJournal();
+                    reader.load();
+                    java.util.List<Long> present = new ArrayList<>();
+                    for (Task task : reader.snapshot()) present.add(task.id);
+                    reader.journal.close();
+                    return present;
+                });
+                TaskStore.Loaded rewritten = TaskStore.read(tasks.toPath(), StoragePipeline.configured());
+                boolean ok = recovered.containsAll(ids) && recovered.size() == ids.size()
+                        && rewritten.damagedBytes == 0 && rewritten.tasks.size() == ids.size()
+                        && logged.contains(" RECOVERED");
+                System.out.printf("recovery check: %d of %d tasks replayed, snapshot %s: %s%n",
+                        recovered.size(), ids.size(), rewritten.damagedBytes == 0 ? "rewritten" : "still damaged",
+                        ok ? "OK" : "FAILED");
+                return ok;
+            } finally {
+                deleteTree(dir);
+            }
+        }
+        
+        void sync() {
+            if (journal == null || loading) return;
+            try {
+                journal.sync();
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+        }
+        
+        private <T> T withStoreLock(TaskJournal.LockedAction<T> action) throws IOException {
+            return journal != null ? journal.withLock(action) : action.run();
+        }
+        
+        private void fire(String op, Task task, int index, boolean remote) {
+            if (!remote && journal != null) {
+                try {
+                    journal.append(op, task, index);
+                } catch (IOException e) {
+                    errorHandler.accept(e);
+                }
+            }
+            for (ChangeListener listener : listeners) {
+                listener.taskChanged(op, task, index, remote);
+            }
+        }
+        
+        private void applyRemote(Map<String, String> entry) {
+            String op = entry.get("op");
+            if (TaskJournal.CLEAR.equals(op)) {
+                model.clear();
+                fire(op, null, -1, true);
+                return;
+            }
+            if (TaskJournal.RELOAD.equals(op)) {
+                reload();
+                return;
+            }
+            long id = Long.parseLong(entry.get("id"));
+            int current = indexOf(id);
+            int index = entry.containsKey("index") ? Integer.parseInt(entry.get("index")) : -1;
+            if (TaskJournal.ADD.equals(op) && current < 0) {
+                Task task = TaskTransfer.fromFields(entry);
+                if (task == null) return;
+                task.id = id;
+                index = index >= 0 && index <= model.getSize() ? index : model.getSize();
+                model.add(index, task);
+                fire(op, task, index, true);
+            } else if (TaskJournal.UPDATE.equals(op) && current >= 0) {
+                Task updated = TaskTransfer.fromFields(entry);
+                if (updated == null) return;
+                Task task = model.getElementAt(current);
+                task.content = updated.content;
+                task.priority = updated.priority;
+                task.category = updated.category;
+                task.completed = updated.completed;
+                task.completedAt = updated.completedAt;
+                task.dueDate = updated.dueDate;
+                task.recurrence = updated.recurrence;
+                task.recurrenceFrom = updated.recurrenceFrom;
+                task.parentId = updated.parentId;
+                task.tags = updated.tags;
+                model.set(current, task);
+                fire(op, task, current, true);
+            } else if (TaskJournal.REMOVE.equals(op) && current >= 0) {
+                fire(op, model.remove(current), -1, true);
+            } else if (TaskJournal.MOVE.equals(op) && current >= 0 && index >= 0) {
+                Task task = model.remove(current);
+                index = Math.min(index, model.getSize());
+                model.add(index, task);
+                fire(op, task, index, true);
+            }
+        }
+    }
+
+    static class SyncServer implements TaskService.ChangeListener {
+        static final int DEFAULT_PORT = 8765;
+        static final int FEED_CAPACITY = 4096;
+        static final long POLL_TIMEOUT_SECONDS = 25;
+        static final long KEEPALIVE_SECONDS = 20;
+        
+        private final TaskService service;
+        private final Runnable onChange;
+        // the whole expected Authorization header, or null when no token is set
+        private final byte[] authorization;
+        private final HttpServer server;
+        private final ExecutorService executor = newRequestExecutor();
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sync-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final String[] feed = new String[FEED_CAPACITY];
+        private final java.util.List<Waiter> waiters = new ArrayList<>();
+        private final java.util.List<Stream> streams = new ArrayList<>();
+        private long seq;
+        
+        // parked requests and open streams hold a socket each but no thread
+        private static class Waiter {
+            final HttpExchange exchange;
+            final long since;
+            ScheduledFuture<?> timeout;
+            
+            Waiter(HttpExchange exchange, long since) {
+                this.exchange = exchange;
+                this.since = since;
+            }
+        }
+        
+        private static class Stream {
+            final HttpExchange exchange;
+            long sent;
+            boolean flushing;
+            
+            Stream(HttpExchange exchange, long sent) {
+                this.exchange = exchange;
+                this.sent = sent;
+            }
+        }
+        
+        // anything other than loopback is reachable by other machines, so it needs a token
+        SyncServer(TaskService service, InetSocketAddress address, String token, Runnable onChange) throws IOException {
+            if (token != null && token.isEmpty()) token = null;
+            if (token == null && (address.getAddress() == null || !address.getAddress().isLoopbackAddress())) {
+                throw new IOException("Refusing to listen on " + address.getHostString()
+                        + " without TODO_SYNC_TOKEN; set one or bind to 127.0.0.1");
+            }
+            this.service = service;
+            this.onChange = onChange;
+            this.authorization = token != null ? ("Bearer " + token).getBytes(StandardCharsets.UTF_8) : null;
+            this.server = HttpServer.create(address, 0);
+            server.setExecutor(executor);
+            server.createContext("/", this::handle);
+        }
+        
+        // virtual threads when the runtime has them, otherwise a plain cached pool
+        static ExecutorService newRequestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool(r -> {
+                    Thread thread = new Thread(r, "sync-http");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        
+        void start() {
+            service.addListener(this);
+            timer.scheduleAtFixedRate(this::keepAlive, KEEPALIVE_SECONDS, KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+            server.start();
+        }
+        
+        void stop() {
+            service.removeListener(this);
+            server.stop(0);
+            timer.shutdownNow();
+            executor.shutdownNow();
+        }
+        
+        InetSocketAddress getAddress() {
+            return server.getAddress();
+        }
+        
+        @Override
+        public void taskChanged(String op, Task task, int index, boolean remote) {
+            StringBuilder sb = new StringBuilder(160);
+            java.util.List<Waiter> ready;
+            java.util.List<Stream> listening;
+            synchronized (this) {
+                seq++;
+                sb.append("{\"seq\":").append(seq).append(",\"op\":\"").append(op).append('"');
+                if (index >= 0) {
+                    sb.append(",\"index\":").append(index);
+                }
+                if (task != null) {
+                    sb.append(',');
+                    appendTask(sb, task);
+                }
+                sb.append('}');
+                feed[(int) (seq % FEED_CAPACITY)] = sb.toString();
+                ready = new ArrayList<>(waiters);
+                waiters.clear();
+                listening = new ArrayList<>(streams);
+            }
+            for (Waiter waiter : ready) {
+                waiter.timeout.cancel(false);
+                executor.execute(() -> answerPoll(waiter));
+            }
+            for (Stream stream : listening) {
+                scheduleFlush(stream);
+            }
+        }
+        
+        // null when the client is too far behind and has to refetch /tasks
+        private synchronized java.util.List<String> changesSince(long since) {
+            if (since > seq || since < seq - FEED_CAPACITY) return null;
+            java.util.List<String> changes = new ArrayList<>((int) (seq - since));
+            for (long s = since + 1; s <= seq; s++) {
+                changes.add(feed[(int) (s % FEED_CAPACITY)]);
+            }
+            return changes;
+        }
+        
+        // compares in time independent of where the first mismatch is
+        private boolean authorized(String header) {
+            return header != null && MessageDigest.isEqual(authorization, header.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        private void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (authorization != null && !authorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                    send(exchange, 401, "{\"error\":\"unauthorized\"}");
+                    return;
+                }
+                route(exchange);
+            } catch (IllegalArgumentException e) {
+                StringBuilder sb = new StringBuilder("{\"error\":");
+                Json.appendString(sb, e.getMessage());
+                send(exchange, 400, sb.append('}').toString());
+            } catch (Exception e) {
+                send(exchange, 500, "{\"error\":\"internal error\"}");
+            }
+        }
+        
+        private void route(HttpExchange exchange) throws Exception {
+            String method = exchange.getRequestMethod();
+            String[] parts = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            
+            if (parts.length == 1 && parts[0].equals("changes") && method.equals("GET")) {
+                poll(exchange, parseSince(exchange, query));
+            } else if (parts.length == 1 && parts[0].equals("events") && method.equals("GET")) {
+                subscribe(exchange, parseSince(exchange, query));
+            } else if (parts.length == 1 && parts[0].equals("tasks")) {
+                if (method.equals("GET")) {
+                    send(exchange, 200, onEdt(this::listTasks));
+                } else if (method.equals("POST")) {
+                    Map<String, String> body = readBody(exchange);
+                    String content = body.get("content");
+                    if (content == null || content.trim().isEmpty()) {
+                        throw new IllegalArgumentException("content is required");
+                    }
+                    Priority priority = Priority.valueOf(body.getOrDefault("priority", "MEDIUM").toUpperCase());
+                    Category category = Category.valueOf(body.getOrDefault("category", "OTHER").toUpperCase());
+                    send(exchange, 201, mutate(() -> taskJson(service.add(content.trim(), priority, category))));
+                } else if (method.equals("DELETE")) {
+                    send(exchange, 200, mutate(() -> "{\"removed\":" + service.clearAll() + "}"));
+                } else {
+                    send(exchange, 405, "{\"error\":\"method not allowed\"}");
+                }
+            } else if (parts.length == 2 && parts[0].equals("tasks") && parts[1].equals("clear-completed")
+                    && method.equals("POST")) {
+                send(exchange, 200, mutate(() -> "{\"removed\":" + service.clearCompleted() + "}"));
+            } else if ((parts.length == 2 || parts.length == 3) && parts[0].equals("tasks")) {
+                routeTask(exchange, method, parseId(parts[1]), parts.length == 3 ? parts[2] : "", query);
+            } else {
+                send(exchange, 404, "{\"error\":\"not found\"}");
+            }
+        }
+        
+        private void routeTask(HttpExchange exchange, String method, long id, String action,
+                Map<String, String> query) throws Exception {
+            Map<String, String> body = method.equals("PUT") ? readBody(exchange) : null;
+            String result = action.isEmpty() && method.equals("GET") ? onEdt(() -> {
+                int index = service.indexOf(id);
+                return index < 0 ? null : taskJson(service.model.getElementAt(index));
+            }) : mutate(() -> {
+                int index = service.indexOf(id);
+                if (index < 0) return null;
+                if (action.isEmpty() && method.equals("DELETE")) {
+                    return taskJson(service.remove(index));
+                } else if (action.isEmpty() && method.equals("PUT")) {
+                    String content = body.get("content");
+                    if (content == null && !body.containsKey("recurrence")) {
+                        throw new IllegalArgumentException("content or recurrence is required");
+                    }
+                    if (content != null && content.trim().isEmpty()) {
+                        throw new IllegalArgumentException("content must not be empty");
+                    }
+                    if (content != null) {
+                        service.edit(index, content.trim());
+                    }
+                    if (body.containsKey("recurrence")) {
+                        service.setRecurrence(index, body.get("recurrence"));
+                    }
+                } else if (action.equals("complete") && method.equals("POST")) {
+                    service.complete(index);
+                } else if (action.equals("duplicate") && method.equals("POST")) {
+                    return taskJson(service.duplicate(index));
+                } else if (action.equals("move") && method.equals("POST")) {
+                    int to = Integer.parseInt(query.getOrDefault("to", "-1"));
+                    if (to < 0 || to >= service.model.getSize()) {
+                        throw new IllegalArgumentException("to must be between 0 and " + (service.model.getSize() - 1));
+                    }
+                    if (to != index) {
+                        service.move(index, to);
+                    }
+                } else {
+                    throw new IllegalArgumentException("unsupported " + method + " on task " + action);
+                }
+                return taskJson(service.model.getElementAt(service.indexOf(id)));
+            });
+            if (result == null) {
+                send(exchange, 404, "{\"error\":\"no task with id " + id + "\"}");
+            } else {
+                send(exchange, 200, result);
+            }
+        }
+        
+        private String listTasks() {
+            StringBuilder sb = new StringBuilder(64 + service.model.getSize() * 160);
+            synchronized (this) {
+                sb.append("{\"seq\":").append(seq).append(",\"tasks\":[");
+            }
+            for (int i = 0; i < service.model.getSize(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append('{');
+                appendTask(sb, service.model.getElementAt(i));
+                sb.append('}');
+            }
+            return sb.append("]}").toString();
+        }
+        
+        private void poll(HttpExchange exchange, long since) throws IOException {
+            Waiter waiter = new Waiter(exchange, since);
+            synchronized (this) {
+                if (since == seq) {
+                    waiter.timeout = timer.schedule(() -> expire(waiter), POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    waiters.add(waiter);
+                    return;
+                }
+            }
+            answerPoll(waiter);
+        }
+        
+        private void expire(Waiter waiter) {
+            synchronized (this) {
+                if (!waiters.remove(waiter)) return;
+            }
+            executor.execute(() -> answerPoll(waiter));
+        }
+        
+        private void answerPoll(Waiter waiter) {
+            java.util.List<String> changes = changesSince(waiter.since);
+            try {
+                if (changes == null) {
+                    send(waiter.exchange, 410, "{\"error\":\"feed position expired, reload /tasks\"}");
+                    return;
+                }
+                StringBuilder sb = new StringBuilder("{\"seq\":").append(waiter.since + changes.size())
+                        .append(",\"changes\":[");
+                sb.append(String.join(",", changes));
+                send(waiter.exchange, 200, sb.append("]}").toString());
+            } catch (IOException e) {
+                waiter.exchange.close();
+            }
+        }
+        
+        private void subscribe(HttpExchange exchange, long since) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            Stream stream = new Stream(exchange, since);
+            synchronized (this) {
+                streams.add(stream);
+            }
+            scheduleFlush(stream);
+        }
+        
+        private void scheduleFlush(Stream stream) {
+            synchronized (stream) {
+                if (stream.flushing) return;
+                stream.flushing = true;
+            }
+            executor.execute(() -> flush(stream));
+        }
+        
+        // one writer per stream at a time; events that arrive meanwhile are picked up by the loop
+        private void flush(Stream stream) {
+            try {
+                while (true) {
+                    java.util.List<String> changes = changesSince(stream.sent);
+                    if (changes != null && changes.isEmpty()) {
+                        // an event published since that read saw flushing still set and left it to this loop,
+                        // so the feed is read again under the stream's lock before the loop gives up
+                        synchronized (stream) {
+                            changes = changesSince(stream.sent);
+                            if (changes != null && changes.isEmpty()) {
+                                stream.flushing = false;
+                                return;
+                            }
+                        }
+                    }
+                    OutputStream out = stream.exchange.getResponseBody();
+                    if (changes == null) {
+                        out.write("event: reset\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        closeStream(stream);
+                        return;
+                    }
+                    StringBuilder sb = new StringBuilder();
+                    for (String change : changes) {
+                        sb.append("id: ").append(++stream.sent).append("\ndata: ").append(change).append("\n\n");
+                    }
+                    out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                closeStream(stream);
+            }
+        }
+        
+        private void keepAlive() {
+            java.util.List<Stream> listening;
+            synchronized (this) {
+                listening = new ArrayList<>(streams);
+            }
+            // the ping is written as the stream's writer, outside its lock, and flush() hands the stream back
+            for (Stream stream : listening) {
+                executor.execute(() -> {
+                    synchronized (stream) {
+                        if (stream.flushing) return;
+                        stream.flushing = true;
+                    }
+                    try {
+                        OutputStream out = stream.exchange.getResponseBody();
+                        out.write(": ping\n\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    } catch (IOException e) {
+                        closeStream(stream);
+                        return;
+                    }
+                    flush(stream);
+                });
+            }
+        }
+        
+        private void closeStream(Stream stream) {
+            synchronized (this) {
+                streams.remove(stream);
+            }
+            stream.exchange.close();
+        }
+        
+        // runs a service call on the EDT, then lets the owner save and refresh
+        private String mutate(Callable<String> action) throws Exception {
+            return onEdt(() -> {
+                String result = action.call();
+                if (result != null) {
+                    onChange.run();
+                }
+                return result;
+            });
+        }
+        
+        static <T> T onEdt(Callable<T> action) throws Exception {
+            if (SwingUtilities.isEventDispatchThread()) {
+                return action.call();
+            }
+            FutureTask<T> task = new FutureTask<>(action);
+            SwingUtilities.invokeLater(task);
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        
+        private static String taskJson(Task task) {
+            StringBuilder sb = new StringBuilder(160).append('{');
+            appendTask(sb, task);
+            return sb.append('}').toString();
+        }
+        
+        private static void appendTask(StringBuilder sb, Task task) {
+            sb.append("\"id\":\"").append(task.id).append("\",");
+            TaskTransfer.appendFields(sb, task);
+        }
+        
+        private static long parseSince(HttpExchange exchange, Map<String, String> query) {
+            String value = query.get("since");
+            if (value == null) value = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            if (value == null) throw new IllegalArgumentException("since is required");
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("since must be a number");
+            }
+        }
+        
+        private static long parseId(String value) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad task id " + value);
+            }
+        }
+        
+        private static Map<String, String> parseQuery(String raw) {
+            Map<String, String> query = new HashMap<>();
+            if (raw == null) return query;
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                              URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+            return query;
+        }
+        
+        private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+            try (InputStream in = exchange.getRequestBody()) {
+                return Json.parseObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        
+        private static void send(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    static class TaskArchive {
+        static final int DEFAULT_AGE_DAYS = 30;
+        static final int SEGMENT_ROWS = 10000;
+        private static final int BLOOM_BITS_PER_TOKEN = 10;
+        private static final int BLOOM_HASHES = 4;
+        private static final String TOMBSTONES = "restored.ids";
+        // held while choosing segment numbers and recording restores, so windows sharing the directory take turns
+        private static final String LOCK = "archive.lock";
+        // the file lock only excludes other processes
+        private static final Object LOCAL_LOCK = new Object();
+        
+        private final Path dir;
+        // segments and restored are only changed under withLock and read under this monitor; searches and restores
+        // scan a View copied from them, so the archiving worker, searches and the dialog never see them mid-change
+        private final java.util.List<SegmentIndex> segments = new ArrayList<>();
+        // ids restored out of each segment; a task restored and archived again lives on in its new segment
+        private final Map<Integer, Set<Long>> restored = new HashMap<>();
+        private final StoragePipeline pipeline;
+        // with a passphrase, segments and their indexes are sealed at best compression instead of gzipped; the
+        // Bloom bits would otherwise tell which words the archived tasks contain. Null without one
+        private final StoragePipeline sealer;
+        
+        static class SegmentIndex {
+            final int number;
+            final int count;
+            final String from, to;
+            final long[] bloom;
+            
+            SegmentIndex(int number, int count, String from, String to, long[] bloom) {
+                this.number = number;
+                this.count = count;
+                this.from = from;
+                this.to = to;
+                this.bloom = bloom;
+            }
+            
+            boolean mightContain(java.util.List<String> tokens) {
+                for (String token : tokens) {
+                    if (!bloomContains(bloom, token)) return false;
+                }
+                return true;
+            }
+        }
+        
+        private static class View {
+            final java.util.List<SegmentIndex> segments;
+            final Map<Integer, Set<Long>> restored;
+            
+            View(java.util.List<SegmentIndex> segments, Map<Integer, Set<Long>> restored) {
+                this.segments = segments;
+                this.restored = restored;
+            }
+            
+            Set<Long> restored(SegmentIndex segment) {
+                return restored.getOrDefault(segment.number, Collections.emptySet());
+            }
+        }
+        
+        TaskArchive(Path dir) throws IOException {
+            this(dir, StoragePipeline.configured());
+        }
+        
+        TaskArchive(Path dir, StoragePipeline pipeline) throws IOException {
+            this.dir = dir;
+            this.pipeline = pipeline;
+            this.sealer = pipeline.encrypts() ? pipeline.withLevel(Deflater.BEST_COMPRESSION) : null;
+            Files.createDirectories(dir);
+            withLock(() -> {
+                refresh();
+                return null;
+            });
+        }
+        
+        private <T> T withLock(TaskJournal.LockedAction<T> action) throws IOException {
+            synchronized (LOCAL_LOCK) {
+                synchronized (this) {
+                    try (FileChannel channel = FileChannel.open(dir.resolve(LOCK),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                        // released when the channel closes
+                        channel.lock();
+                        return action.run();
+                    }
+                }
+            }
+        }
+        
+        // the current segments and tombstones, other windows' included
+        private View view() throws IOException {
+            return withLock(() -> {
+                refresh();
+                Map<Integer, Set<Long>> copy = new HashMap<>();
+                for (Map.Entry<Integer, Set<Long>> entry : restored.entrySet()) {
+                    copy.put(entry.getKey(), new HashSet<>(entry.getValue()));
+                }
+                return new View(new ArrayList<>(segments), copy);
+            });
+        }
+        
+        // picks up segments and restores written by other windows since the last look; call under the lock
+        private void refresh() throws IOException {
+            Set<Integer> known = new HashSet<>();
+            for (SegmentIndex segment : segments) {
+                known.add(segment.number);
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "segment-*.gz")) {
+                for (Path segment : files) {
+                    if (!known.contains(number(segment))) segments.add(readIndex(segment));
+                }
+            }
+            segments.sort(Comparator.comparingInt(s -> s.number));
+            restored.clear();
+            Path tombstones = dir.resolve(TOMBSTONES);
+            if (!Files.exists(tombstones)) return;
+            Map<Long, Integer> legacy = new HashMap<>();
+            for (String line : Files.readAllLines(tombstones, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                int tab = line.indexOf('\t');
+                try {
+                    if (tab > 0) {
+                        tombstone(Integer.parseInt(line.substring(0, tab)), Long.parseLong(line.substring(tab + 1)));
+                        continue;
+                    }
+                    legacy.merge(Long.parseLong(line), 1, Integer::sum);
+                } catch (NumberFormatException e) {
+                    // a torn line from a window that died mid-write
+                }
+            }
+            if (legacy.isEmpty()) return;
+            // older files name only the id, once per restore; the oldest segments holding it are the ones it was
+            // restored from, and a copy archived after the last restore is still live
+            for (Map.Entry<Long, Integer> entry : legacy.entrySet()) {
+                java.util.List<String> token = java.util.Collections.singletonList(idToken(entry.getKey()));
+                int left = entry.getValue();
+                for (int i = 0; i < segments.size() && left > 0; i++) {
+                    if (segments.get(i).mightContain(token)) {
+                        tombstone(segments.get(i).number, entry.getKey());
+                        left--;
+                    }
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Integer, Set<Long>> entry : restored.entrySet()) {
+                for (long id : entry.getValue()) {
+                    sb.append(entry.getKey()).append('\t').append(id).append('\n');
+                }
+            }
+            Path tmp = Files.createTempFile(dir, "restored-", ".tmp");
+            try {
+                Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp, tombstones, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        
+        private void tombstone(int segment, long id) {
+            restored.computeIfAbsent(segment, k -> new HashSet<>()).add(id);
+        }
+        
+        static boolean isArchivable(Task task, LocalDateTime cutoff) {
+            if (!task.completed || task.completedAt == null) return false;
+            try {
+                return LocalDateTime.parse(task.completedAt, TaskService.TIME_FORMAT).isBefore(cutoff);
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        
+        synchronized int archivedCount() {
+            int count = 0;
+            for (SegmentIndex segment : segments) {
+                count += segment.count - restored.getOrDefault(segment.number, Collections.emptySet()).size();
+            }
+            return count;
+        }
+        
+        // segments are written once and never modified, restores are recorded as tombstones; each segment is
+        // written under a temporary name and only numbered under the lock, never over an existing one
+        void append(java.util.List<Task> tasks) throws IOException {
+            for (int start = 0; start < tasks.size(); start += SEGMENT_ROWS) {
+                java.util.List<Task> rows = tasks.subList(start, Math.min(tasks.size(), start + SEGMENT_ROWS));
+                Path tmp = Files.createTempFile(dir, "segment-", ".tmp");
+                try {
+                    OutputStream file = new BufferedOutputStream(Files.newOutputStream(tmp), TaskTransfer.BUFFER_SIZE);
+                    try (Writer out = new OutputStreamWriter(sealer != null ? sealer.create(file)
+                            : new GZIPOutputStream(file, TaskTransfer.BUFFER_SIZE) {
+                                { def.setLevel(Deflater.BEST_COMPRESSION); }
+                            }, StandardCharsets.UTF_8)) {
+                        StringBuilder sb = new StringBuilder(256);
+                        for (Task task : rows) {
+                            sb.setLength(0);
+                            writeRecord(sb, task);
+                            out.write(sb.append('\n').toString());
+                        }
+                    }
+                    withLock(() -> {
+                        refresh();
+                        int number = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).number + 1;
+                        while (true) {
+                            try {
+                                // without REPLACE_EXISTING the move fails rather than overwrite a segment
+                                Files.move(tmp, segmentPath(number));
+                                break;
+                            } catch (FileAlreadyExistsException e) {
+                                number++;
+                            }
+                        }
+                        SegmentIndex index = buildIndex(number, rows);
+                        writeIndex(index);
+                        segments.add(index);
+                        return null;
+                    });
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+        
+        // whole words, all of them: the Bloom filters only know whole words, so a substring match would be
+        // missed in any segment they prune
+        java.util.List<Task> search(String query, int limit) throws IOException {
+            java.util.List<String> tokens = tokenize(query);
+            java.util.List<Task> results = new ArrayList<>();
+            View view = view();
+            for (int i = view.segments.size() - 1; i >= 0 && results.size() < limit; i--) {
+                SegmentIndex segment = view.segments.get(i);
+                if (!segment.mightContain(tokens)) continue;
+                scan(segment, view.restored(segment), task -> {
+                    if (results.size() < limit && new HashSet<>(tokenize(task.content)).containsAll(tokens)) {
+                        results.add(task);
+                    }
+                });
+            }
+            return results;
+        }
+        
+        // null when no segment holds the task, or another window restored it first
+        Task take(long id) throws IOException {
+            java.util.List<String> token = java.util.Collections.singletonList(idToken(id));
+            Task[] found = new Task[1];
+            int number = 0;
+            View view = view();
+            for (int i = view.segments.size() - 1; i >= 0 && found[0] == null; i--) {
+                SegmentIndex segment = view.segments.get(i);
+                if (!segment.mightContain(token)) continue;
+                scan(segment, view.restored(segment), task -> {
+                    if (task.id == id) found[0] = task;
+                });
+                number = segment.number;
+            }
+            if (found[0] == null) return null;
+            int from = number;
+            return withLock(() -> {
+                refresh();
+                if (restored.getOrDefault(from, Collections.emptySet()).contains(id)) return null;
+                Files.write(dir.resolve(TOMBSTONES), (from + "\t" + id + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                tombstone(from, id);
+                return found[0];
+            });
+        }
+        
+        // --self-check: two archives on one directory number their segments at once, then a task is restored
+        // and archived again
+        static boolean checkArchive() throws Exception {
+            Path dir = Files.createTempDirectory("todo-archive");
+            ExecutorService windows = Executors.newFixedThreadPool(2);
+            try {
+                int batches = 20, rows = 50;
+                String completedAt = LocalDateTime.now().format(TaskService.TIME_FORMAT);
+                java.util.List<Callable<Task>> appends = new ArrayList<>();
+                for (String name : new String[] {"first", "second"}) {
+                    TaskArchive archive = new TaskArchive(dir);
+                    appends.add(() -> {
+                        Task sample = null;
+                        for (int b = 0; b < batches; b++) {
+                            java.util.List<Task> tasks = new ArrayList<>();
+                            for (int i = 0; i < rows; i++) {
+                                Task task = new Task("Archive check " + name + " b" + b + "r" + i, Priority.LOW, Category.WORK);
+                                task.completed = true;
+                                task.completedAt = completedAt;
+                                tasks.add(task);
+                            }
+                            archive.append(tasks);
+                            if (sample == null) sample = tasks.get(0);
+                        }
+                        return sample;
+                    });
+                }
+                java.util.List<Task> samples = new ArrayList<>();
+                for (java.util.concurrent.Future<Task> append : windows.invokeAll(appends)) {
+                    samples.add(append.get());
+                }
+                int total = 2 * batches * rows;
+                int segments;
+                try (Stream<Path> files = Files.list(dir)) {
+                    segments = (int) files.filter(file -> file.getFileName().toString().matches("segment-\\d+\\.gz")).count();
+                }
+                boolean numbered = segments == 2 * batches && new TaskArchive(dir).archivedCount() == total;
+                
+                Task sample = samples.get(0);
+                TaskArchive archive = new TaskArchive(dir);
+                Task restored = archive.take(sample.id);
+                boolean once = restored != null && archive.take(sample.id) == null
+                        && archive.search(sample.content, 10).isEmpty();
+                if (restored != null) archive.append(Collections.singletonList(restored));
+                java.util.List<Task> found = new TaskArchive(dir).search(sample.content, 10);
+                boolean rearchived = found.size() == 1 && found.get(0).id == sample.id
+                        && new TaskArchive(dir).archivedCount() == total;
+                
+                boolean ok = numbered && once && rearchived;
+                System.out.printf("archive check: %d segments, %d of %d tasks, restored %s, archived again %s: %s%n",
+                        segments, new TaskArchive(dir).archivedCount(), total, once ? "once" : "FAILED",
+                        rearchived ? "found" : "missing", ok ? "OK" : "FAILED");
+                return ok;
+            } finally {
+                windows.shutdownNow();
+                deleteTree(dir);
+            }
+        }
+        
+        private void scan(SegmentIndex segment, Set<Long> gone, Consumer<Task> consumer) throws IOException {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    open(segmentPath(segment.number)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Task task = readRecord(line);
+                    if (task != null && !gone.contains(task.id)) {
+                        consumer.accept(task);
+                    }
+                }
+            }
+        }
+        
+        // segments written before a passphrase was set stay gzipped and are still read
+        private InputStream open(Path file) throws IOException {
+            InputStream in = new BufferedInputStream(Files.newInputStream(file), TaskTransfer.BUFFER_SIZE);
+            try {
+                return StoragePipeline.isSealed(file) ? pipeline.open(in)
+                        : new GZIPInputStream(in, TaskTransfer.BUFFER_SIZE);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        
+        private static void writeRecord(StringBuilder sb, Task task) {
+            sb.append("{\"id\":").append(task.id).append(',');
+            TaskTransfer.appendFields(sb, task);
+            sb.append('}');
+        }
+        
+        private static Task readRecord(String line) {
+            try {
+                Map<String, String> fields = Json.parseObject(line);
+                Task task = TaskTransfer.fromFields(fields);
+                if (task != null) {
+                    task.id = Long.parseLong(fields.get("id"));
+                }
+                return task;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        
+        private Path segmentPath(int number) {
+            return dir.resolve(String.format("segment-%05d.gz", number));
+        }
+        
+        private Path indexPath(int number) {
+            return dir.resolve(String.format("segment-%05d.idx", number));
+        }
+        
+        private SegmentIndex buildIndex(int number, java.util.List<Task> rows) {
+            Set<String> tokens = new HashSet<>();
+            LocalDateTime from = null, to = null;
+            for (Task task : rows) {
+                tokens.addAll(tokenize(task.content));
+                tokens.add(idToken(task.id));
+                LocalDateTime completed = LocalDateTime.parse(task.completedAt, TaskService.TIME_FORMAT);
+                if (from == null || completed.isBefore(from)) from = completed;
+                if (to == null || completed.isAfter(to)) to = completed;
+            }
+            long[] bloom = new long[Math.max(16, (tokens.size() * BLOOM_BITS_PER_TOKEN + 63) / 64)];
+            for (String token : tokens) {
+                bloomAdd(bloom, token);
+            }
+            return new SegmentIndex(number, rows.size(), from != null ? from.toString() : null,
+                    to != null ? to.toString() : null, bloom);
+        }
+        
+        private void writeIndex(SegmentIndex index) throws IOException {
+            ByteBuffer bits = ByteBuffer.allocate(index.bloom.length * 8);
+            bits.asLongBuffer().put(index.bloom);
+            StringBuilder sb = new StringBuilder("{\"count\":").append(index.count).append(",\"from\":");
+            Json.appendString(sb, index.from);
+            sb.append(",\"to\":");
+            Json.appendString(sb, index.to);
+            sb.append(",\"bloom\":\"").append(Base64.getEncoder().encodeToString(bits.array())).append("\"}\n");
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            // renamed into place so a reader never sees half an index
+            Path tmp = Files.createTempFile(dir, "index-", ".tmp");
+            try {
+                try (OutputStream out = sealer != null ? sealer.create(Files.newOutputStream(tmp))
+                        : Files.newOutputStream(tmp)) {
+                    out.write(bytes);
+                }
+                try {
+                    Files.move(tmp, indexPath(index.number), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, indexPath(index.number), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        
+        private static int number(Path segment) {
+            String name = segment.getFileName().toString();
+            return Integer.parseInt(name.substring("segment-".length(), name.length() - ".gz".length()));
+        }
+        
+        private SegmentIndex readIndex(Path segment) throws IOException {
+            int number = number(segment);
+            Path indexFile = indexPath(number);
+            if (Files.exists(indexFile)) {
+                try {
+                    byte[] bytes;
+                    if (StoragePipeline.isSealed(indexFile)) {
+                        try (InputStream in = pipeline.open(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                            bytes = in.readAllBytes();
+                        }
+                    } else {
+                        bytes = Files.readAllBytes(indexFile);
+                    }
+                    Map<String, String> fields = Json.parseObject(new String(bytes, StandardCharsets.UTF_8).trim());
+                    ByteBuffer bits = ByteBuffer.wrap(Base64.getDecoder().decode(fields.get("bloom")));
+                    long[] bloom = new long[bits.remaining() / 8];
+                    bits.asLongBuffer().get(bloom);
+                    return new SegmentIndex(number, Integer.parseInt(fields.get("count")),
+                            fields.get("from"), fields.get("to"), bloom);
+                } catch (IllegalArgumentException | StreamCorruptedException e) {
+                    // rebuilt below
+                }
+            }
+            java.util.List<Task> rows = new ArrayList<>();
+            // every row, restored or not, as the count is of rows written
+            scan(new SegmentIndex(number, 0, null, null, null), Collections.emptySet(), rows::add);
+            SegmentIndex index = buildIndex(number, rows);
+            writeIndex(index);
+            return index;
+        }
+        
+        static java.util.List<String> tokenize(String text) {
+            java.util.List<String> tokens = new ArrayList<>();
+            for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+                if (!token.isEmpty()) tokens.add(token);
+            }
+            return tokens;
+        }
+        
+        private static String idToken(long id) {
+            return "#" + id;
+        }
+        
+        private static void bloomAdd(long[] bloom, String token) {
+            int h1 = token.hashCode();
+            int h2 = mix(h1);
+            long bits = (long) bloom.length * 64;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bits);
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+        
+        private static boolean bloomContains(long[] bloom, String token) {
+            int h1 = token.hashCode();
+            int h2 = mix(h1);
+            long bits = (long) bloom.length * 64;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bits);
+                if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+        
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            return (h ^ (h >>> 16)) | 1;
+        }
+    }
+
+    // optional compress-then-encrypt stage for the task file and history; chunks are sealed independently
+    // so files stream in bounded memory, appends add whole chunks, and damage is confined to one chunk
+    static class StoragePipeline {
+        static final byte[] MAGIC = "TODOPIP2".getBytes(StandardCharsets.US_ASCII);
+        // chunks without a counter or flags; still read, never written
+        static final byte[] LEGACY_MAGIC = "TODOPIP1".getBytes(StandardCharsets.US_ASCII);
+        static final int CHUNK_SIZE = 64 * 1024;
+        static final int DEFLATE = 1;
+        static final int ENCRYPT = 2;
+        // per-chunk flags, the first byte of every chunk's payload
+        private static final int CHUNK_DEFLATED = 1;
+        private static final int CHUNK_LAST = 2;
+        private static final byte[] KEY_CHECK = "TODOKEY1".getBytes(StandardCharsets.US_ASCII);
+        private static final int SALT_LENGTH = 16;
+        private static final int IV_LENGTH = 12;
+        private static final int TAG_BITS = 128;
+        private static final int KEY_ITERATIONS = 120_000;
+        private static final int MAX_SEALED = CHUNK_SIZE + 1024;
+        private static final SecureRandom RANDOM = new SecureRandom();
+        // AES-GCM may add at most this fraction to plaintext save and load times
+        static final double ENCRYPTION_BUDGET = 0.25;
+        
+        final int level;
+        private final char[] passphrase;
+        private final Map<String, SecretKey> keys = new HashMap<>();
+        // one salt per process, so saves reuse the derived key; every chunk still gets a fresh random IV
+        private byte[] salt;
+        // for journal lines, which are sealed one at a time
+        private Cipher lineCipher;
+        
+        // level -1 leaves data uncompressed; a null passphrase leaves it unencrypted
+        StoragePipeline(int level, char[] passphrase) {
+            this.level = level;
+            this.passphrase = passphrase;
+        }
+        
+        // -Dtodo.compress=0..9 and the TODO_PASSPHRASE environment variable, so the secret stays out of ps
+        static StoragePipeline configured() {
+            int level = Integer.getInteger("todo.compress", -1);
+            String secret = System.getenv("TODO_PASSPHRASE");
+            return new StoragePipeline(Math.max(-1, Math.min(9, level)),
+                    secret != null && !secret.isEmpty() ? secret.toCharArray() : null);
+        }
+        
+        boolean enabled() {
+            return level >= 0 || passphrase != null;
+        }
+        
+        boolean encrypts() {
+            return passphrase != null;
+        }
+        
+        // the same passphrase at another compression level, for files that are always compressed
+        StoragePipeline withLevel(int level) {
+            return new StoragePipeline(level, passphrase);
+        }
+        
+        static boolean isSealed(Path path) throws IOException {
+            if (!Files.exists(path) || Files.size(path) < MAGIC.length) return false;
+            try (InputStream in = Files.newInputStream(path)) {
+                byte[] magic = new byte[MAGIC.length];
+                return in.read(magic) == MAGIC.length && isMagic(magic);
+            }
+        }
+        
+        static boolean isLegacy(Path path) throws IOException {
+            if (!Files.exists(path) || Files.size(path) < MAGIC.length) return false;
+            try (InputStream in = Files.newInputStream(path)) {
+                byte[] magic = new byte[MAGIC.length];
+                return in.read(magic) == MAGIC.length && Arrays.equals(magic, LEGACY_MAGIC);
+            }
+        }
+        
+        static boolean isMagic(byte[] magic) {
+            return Arrays.equals(magic, MAGIC) || Arrays.equals(magic, LEGACY_MAGIC);
+        }
+        
+        // the salt, flags and key check of one file; the header, followed by the chunk's position in the file,
+        // is the associated data of every chunk, so chunks cannot be moved, repeated or dropped unnoticed
+        class Format {
+            final int flags;
+            final byte[] header;
+            final int level = StoragePipeline.this.level >= 0 ? StoragePipeline.this.level : Deflater.DEFAULT_COMPRESSION;
+            // false for TODOPIP1 files, whose chunks carry no counter
+            final boolean counted;
+            private final SecretKey key;
+            // raw bytes before the first data chunk, including the key check
+            private int length;
+            // index of the next chunk written in this format
+            private long chunks;
+            private Deflater deflater;
+            private Cipher cipher;
+            
+            private Format(int flags, byte[] header, SecretKey key, boolean counted) {
+                this.flags = flags;
+                this.header = header;
+                this.key = key;
+                this.counted = counted;
+                this.length = header.length;
+            }
+            
+            SealedOutput output(OutputStream out) throws IOException {
+                return new SealedOutput(this, out);
+            }
+            
+            // one whole chunk for appending to an existing file; the deflater and cipher are kept between calls
+            synchronized byte[] sealChunk(byte[] plain, int length, boolean last) throws IOException {
+                if (cipher == null) cipher = cipher();
+                if (deflater == null && (flags & DEFLATE) != 0) deflater = new Deflater(level);
+                return seal(this, plain, length, deflater, cipher, chunks++, last);
+            }
+            
+            // one per stream; init per chunk is cheap next to getInstance
+            Cipher cipher() throws IOException {
+                if (key == null) return null;
+                try {
+                    return Cipher.getInstance("AES/GCM/NoPadding");
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+        
+        // writes a new header, so the stream starts a fresh file
+        SealedOutput create(OutputStream out) throws IOException {
+            int flags = (level >= 0 ? DEFLATE : 0) | (passphrase != null ? ENCRYPT : 0);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(MAGIC);
+            header.write(flags);
+            SecretKey key = null;
+            if (passphrase != null) {
+                byte[] salt = salt();
+                header.write(salt);
+                key = key(salt);
+            }
+            Format format = new Format(flags, header.toByteArray(), key, true);
+            out.write(format.header);
+            if (key != null) {
+                byte[] check = seal(format, KEY_CHECK, KEY_CHECK.length, null, format.cipher(), -1, false);
+                out.write(check);
+                format.length += check.length;
+            }
+            return format.output(out);
+        }
+        
+        // reads and verifies the header, leaving the stream at the first data chunk
+        Format header(InputStream in) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+            if (!isMagic(magic)) throw new IOException("Not a sealed file");
+            boolean counted = Arrays.equals(magic, MAGIC);
+            int flags = data.readUnsignedByte();
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(magic);
+            header.write(flags);
+            SecretKey key = null;
+            if ((flags & ENCRYPT) != 0) {
+                if (passphrase == null) {
+                    throw new IOException("The file is encrypted; set TODO_PASSPHRASE to open it");
+                }
+                byte[] salt = new byte[SALT_LENGTH];
+                data.readFully(salt);
+                header.write(salt);
+                key = key(salt);
+                Format probe = new Format(flags, header.toByteArray(), key, counted);
+                byte[] check = new byte[data.readInt()];
+                if (check.length > MAX_SEALED) throw new IOException("Damaged header");
+                data.readFully(check);
+                try {
+                    if (!Arrays.equals(unseal(probe, check, check.length, probe.cipher(), -1), KEY_CHECK)) {
+                        throw new IOException("Damaged header");
+                    }
+                } catch (StreamCorruptedException e) {
+                    throw new IOException("Wrong passphrase for the encrypted file");
+                }
+                probe.length += 4 + check.length;
+                return probe;
+            }
+            return new Format(flags, header.toByteArray(), null, counted);
+        }
+        
+        SealedInput open(InputStream in) throws IOException {
+            Format format = header(in);
+            return new SealedInput(format, in);
+        }
+        
+        // the format of an existing file with its chunks counted, for appending chunks that continue the sequence;
+        // ends[0] is set to the end of the last whole chunk, which is short of the file size after a torn write;
+        // the stream is left open
+        Format resume(InputStream stream, long[] ends) throws IOException {
+            DataInputStream in = new DataInputStream(stream);
+            Format format = header(in);
+            long end = format.length;
+            while (true) {
+                int first = in.read();
+                if (first < 0) break;
+                try {
+                    int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8)
+                            | in.readUnsignedByte();
+                    if (length <= 0 || length > MAX_SEALED) break;
+                    in.skipNBytes(length);
+                    end += 4 + length;
+                    format.chunks++;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+            ends[0] = end;
+            return format;
+        }
+        
+        // this process's salt, for files such as the journal that name it in their own header
+        String lineSalt() {
+            return Base64.getEncoder().encodeToString(salt());
+        }
+        
+        // one line of text as "~" and the Base64 of [iv][ciphertext + tag]; context is authenticated with it, so a
+        // line copied into another file or journal epoch fails to open
+        synchronized String sealLine(String text, String salt, String context) throws IOException {
+            try {
+                if (lineCipher == null) lineCipher = Cipher.getInstance("AES/GCM/NoPadding");
+                byte[] iv = new byte[IV_LENGTH];
+                RANDOM.nextBytes(iv);
+                lineCipher.init(Cipher.ENCRYPT_MODE, key(Base64.getDecoder().decode(salt)),
+                        new GCMParameterSpec(TAG_BITS, iv));
+                lineCipher.updateAAD(context.getBytes(StandardCharsets.UTF_8));
+                byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+                byte[] sealed = new byte[IV_LENGTH + lineCipher.getOutputSize(plain.length)];
+                System.arraycopy(iv, 0, sealed, 0, IV_LENGTH);
+                lineCipher.doFinal(plain, 0, plain.length, sealed, IV_LENGTH);
+                return "~" + Base64.getEncoder().encodeToString(sealed);
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                throw new IOException(e);
+            }
+        }
+        
+        // a line that is not sealed, or fails authentication, is reported as StreamCorruptedException
+        synchronized String openLine(String line, String salt, String context) throws IOException {
+            if (passphrase == null || salt == null || !line.startsWith("~")) {
+                throw new StreamCorruptedException("Line is not sealed with this passphrase");
+            }
+            try {
+                byte[] sealed = Base64.getDecoder().decode(line.substring(1));
+                if (sealed.length < IV_LENGTH + TAG_BITS / 8) throw new StreamCorruptedException("Short line");
+                if (lineCipher == null) lineCipher = Cipher.getInstance("AES/GCM/NoPadding");
+                lineCipher.init(Cipher.DECRYPT_MODE, key(Base64.getDecoder().decode(salt)),
+                        new GCMParameterSpec(TAG_BITS, sealed, 0, IV_LENGTH));
+                lineCipher.updateAAD(context.getBytes(StandardCharsets.UTF_8));
+                return new String(lineCipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH),
+                        StandardCharsets.UTF_8);
+            } catch (AEADBadTagException | IllegalArgumentException e) {
+                throw new StreamCorruptedException("Line failed authentication");
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+        
+        private synchronized byte[] salt() {
+            if (salt == null) {
+                salt = new byte[SALT_LENGTH];
+                RANDOM.nextBytes(salt);
+            }
+            return salt;
+        }
+        
+        private synchronized SecretKey key(byte[] salt) throws IOException {
+            String id = Base64.getEncoder().encodeToString(salt);
+            SecretKey key = keys.get(id);
+            if (key == null) {
+                try {
+                    SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+                    byte[] raw = factory.generateSecret(new PBEKeySpec(passphrase, salt, KEY_ITERATIONS, 256)).getEncoded();
+                    key = new SecretKeySpec(raw, "AES");
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+                keys.put(id, key);
+            }
+            return key;
+        }
+        
+        // returns [length][sealed], sealed being [iv][ciphertext + tag] when encrypting, otherwise [payload][crc32];
+        // with an index the payload is [flags][data], data deflated only where that makes it smaller, and the index
+        // is covered by the tag or checksum. The key check is sealed without one
+        private static byte[] seal(Format format, byte[] plain, int length, Deflater deflater,
+                Cipher cipher, long index, boolean last) throws IOException {
+            byte[] payload = plain;
+            int size = length;
+            if (index >= 0) {
+                payload = new byte[1 + length];
+                payload[0] = (byte) (last ? CHUNK_LAST : 0);
+                size = 1 + deflate(deflater, plain, length, payload);
+                if (size > 1) {
+                    payload[0] |= CHUNK_DEFLATED;
+                } else {
+                    System.arraycopy(plain, 0, payload, 1, length);
+                    size = 1 + length;
+                }
+            }
+            if (format.key == null) {
+                CRC32 crc = new CRC32();
+                if (index >= 0) crc.update(position(index));
+                crc.update(payload, 0, size);
+                byte[] framed = new byte[4 + size + 4];
+                ByteBuffer.wrap(framed).putInt(size + 4).put(payload, 0, size).putInt((int) crc.getValue());
+                return framed;
+            }
+            try {
+                byte[] iv = new byte[IV_LENGTH];
+                RANDOM.nextBytes(iv);
+                cipher.init(Cipher.ENCRYPT_MODE, format.key, new GCMParameterSpec(TAG_BITS, iv));
+                cipher.updateAAD(format.header);
+                if (index >= 0) cipher.updateAAD(position(index));
+                int sealed = IV_LENGTH + cipher.getOutputSize(size);
+                byte[] framed = new byte[4 + sealed];
+                ByteBuffer.wrap(framed).putInt(sealed).put(iv);
+                cipher.doFinal(payload, 0, size, framed, 4 + IV_LENGTH);
+                return framed;
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+        
+        // saves and loads a synthetic list through each pipeline setting against the plaintext path
+        static void benchmark(int count) throws IOException {
+            java.util.List<Task> tasks = new ArrayList<>(count);
+            Priority[] priorities = Priority.values();
+            Category[] categories = Category.values();
+            for (int i = 0; i < count; i++) {
+                Task task = new Task("Follow up on item " + i + " with the " + categories[i % categories.length].display
+                        + " team", priorities[i % priorities.length], categories[i % categories.length]);
+                task.tags = Task.normalizeTags(i % 3 == 0 ? "work urgent" : "home");
+                tasks.add(task);
+            }
+            char[] secret = "benchmark passphrase".toCharArray();
+            Object[][] settings = {
+                    {"plain", -1, null}, {"deflate 1", 1, null}, {"deflate 6", 6, null},
+                    {"aes-gcm", -1, secret}, {"deflate 1 + aes-gcm", 1, secret}};
+            Path file = Files.createTempFile("todo-pipeline", ".tasks");
+            System.out.printf("%d tasks%n%-20s %10s %9s %9s %9s%n", count, "pipeline", "bytes", "save ms", "load ms", "vs plain");
+            double plainSave = 0, plainLoad = 0;
+            try {
+                for (Object[] setting : settings) {
+                    StoragePipeline pipeline = new StoragePipeline((Integer) setting[1], (char[]) setting[2]);
+                    double save = Double.MAX_VALUE, load = Double.MAX_VALUE;
+                    for (int run = 0; run < 8; run++) {
+                        System.gc();
+                        long start = System.nanoTime();
+                        TaskStore.write(file, tasks, FsyncPolicy.OS, pipeline);
+                        long middle = System.nanoTime();
+                        if (TaskStore.read(file, pipeline).tasks.size() != count) throw new IOException("Round trip lost tasks");
+                        long end = System.nanoTime();
+                        if (run > 2) {
+                            save = Math.min(save, (middle - start) / 1e6);
+                            load = Math.min(load, (end - middle) / 1e6);
+                        }
+                    }
+                    if (setting[1].equals(-1) && setting[2] == null) {
+                        plainSave = save;
+                        plainLoad = load;
+                    }
+                    double overhead = Math.max(save / plainSave, load / plainLoad) - 1;
+                    System.out.printf("%-20s %10d %9.1f %9.1f %+8.0f%%%s%n", setting[0], Files.size(file), save, load,
+                            overhead * 100, setting[0].equals("aes-gcm")
+                                    ? (overhead <= ENCRYPTION_BUDGET ? "  within budget" : "  OVER budget") : "");
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+        
+        private static byte[] position(long index) {
+            return ByteBuffer.allocate(8).putLong(index).array();
+        }
+        
+        // deflates into out from offset 1 and returns the deflated size, or 0 when it would not fit in length bytes
+        private static int deflate(Deflater deflater, byte[] plain, int length, byte[] out) {
+            if (deflater == null || length == 0) return 0;
+            deflater.reset();
+            deflater.setInput(plain, 0, length);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (1 + size == out.length) return 0;
+                size += deflater.deflate(out, 1 + size, out.length - 1 - size);
+            }
+            return size < length ? size : 0;
+        }
+        
+        // a chunk that fails its tag or checksum is reported as StreamCorruptedException; returns the verified
+        // payload, still deflated
+        private static byte[] unseal(Format format, byte[] sealed, int length, Cipher cipher,
+                long index) throws IOException {
+            byte[] payload;
+            int size;
+            if (format.key == null) {
+                if (length < 4) throw new StreamCorruptedException("Short chunk");
+                size = length - 4;
+                CRC32 crc = new CRC32();
+                if (index >= 0) crc.update(position(index));
+                crc.update(sealed, 0, size);
+                if ((int) crc.getValue() != ByteBuffer.wrap(sealed, size, 4).getInt()) {
+                    throw new StreamCorruptedException("Chunk checksum mismatch");
+                }
+                payload = sealed;
+            } else {
+                if (length < IV_LENGTH + TAG_BITS / 8) throw new StreamCorruptedException("Short chunk");
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, format.key, new GCMParameterSpec(TAG_BITS, sealed, 0, IV_LENGTH));
+                    cipher.updateAAD(format.header);
+                    if (index >= 0) cipher.updateAAD(position(index));
+                    payload = cipher.doFinal(sealed, IV_LENGTH, length - IV_LENGTH);
+                    size = payload.length;
+                } catch (AEADBadTagException e) {
+                    throw new StreamCorruptedException("Chunk failed authentication");
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+            }
+            return size == payload.length ? payload : Arrays.copyOf(payload, size);
+        }
+        
+        // a chunk that does not inflate, or inflates past the chunk size, is reported as StreamCorruptedException
+        private static byte[] inflate(byte[] payload, int offset, int size) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(payload, offset, size);
+                byte[] plain = new byte[CHUNK_SIZE];
+                int n = 0;
+                while (!inflater.finished()) {
+                    if (n == plain.length) throw new StreamCorruptedException("Chunk inflates past its size");
+                    int read = inflater.inflate(plain, n, plain.length - n);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new StreamCorruptedException("Truncated chunk");
+                    }
+                    n += read;
+                }
+                return Arrays.copyOf(plain, n);
+            } catch (DataFormatException e) {
+                throw new StreamCorruptedException("Chunk does not inflate");
+            } finally {
+                inflater.end();
+            }
+        }
+        
+        static class SealedOutput extends OutputStream {
+            private final Format format;
+            private final DataOutputStream out;
+            private final Deflater deflater;
+            private final Cipher cipher;
+            private final byte[] pending = new byte[CHUNK_SIZE];
+            private int count;
+            
+            SealedOutput(Format format, OutputStream out) throws IOException {
+                this.format = format;
+                this.out = new DataOutputStream(out);
+                this.cipher = format.cipher();
+                this.deflater = (format.flags & DEFLATE) != 0 ? new Deflater(format.level) : null;
+            }
+            
+            @Override
+            public void write(int b) throws IOException {
+                if (count == pending.length) sealPending();
+                pending[count++] = (byte) b;
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (count == pending.length) sealPending();
+                    int n = Math.min(len, pending.length - count);
+                    System.arraycopy(b, off, pending, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+            
+            // seals whatever is pending, so a flushed prefix is readable on its own
+            @Override
+            public void flush() throws IOException {
+                sealPending();
+                out.flush();
+            }
+            
+            Format format() {
+                return format;
+            }
+            
+            // one write per chunk, so appends from several windows never interleave inside a chunk
+            private void sealPending() throws IOException {
+                if (count == 0) return;
+                out.write(seal(format, pending, count, deflater, cipher, format.chunks++, false));
+                count = 0;
+            }
+            
+            // the last chunk is flagged, possibly empty, so a file cut short at a chunk boundary is still noticed
+            @Override
+            public void close() throws IOException {
+                try {
+                    out.write(seal(format, pending, count, deflater, cipher, format.chunks++, true));
+                    count = 0;
+                    out.flush();
+                } finally {
+                    if (deflater != null) {
+                        deflater.end();
+                    }
+                    out.close();
+                }
+            }
+        }
+        
+        static class SealedInput extends InputStream {
+            private final Format format;
+            private final DataInputStream in;
+            private final Cipher cipher;
+            private byte[] chunk = new byte[0];
+            private int position;
+            private long intactBytes;
+            private long index;
+            private boolean last;
+            
+            SealedInput(Format format, InputStream in) throws IOException {
+                this.format = format;
+                this.in = new DataInputStream(in);
+                this.cipher = format.cipher();
+                this.intactBytes = format.length;
+            }
+            
+            Format format() {
+                return format;
+            }
+            
+            // raw file bytes up to the end of the last chunk that verified
+            long intactBytes() {
+                return intactBytes;
+            }
+            
+            @Override
+            public int read() throws IOException {
+                while (position == chunk.length) {
+                    if (!next()) return -1;
+                }
+                return chunk[position++] & 0xff;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                while (position == chunk.length) {
+                    if (!next()) return -1;
+                }
+                int n = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, n);
+                position += n;
+                return n;
+            }
+            
+            private boolean next() throws IOException {
+                int first = in.read();
+                if (first < 0) {
+                    if (format.counted && !last) throw new StreamCorruptedException("Chunks missing at the end");
+                    return false;
+                }
+                int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+                if (length <= 0 || length > MAX_SEALED) throw new StreamCorruptedException("Bad chunk length");
+                byte[] sealed = new byte[length];
+                in.readFully(sealed);
+                if (format.counted) {
+                    byte[] payload = unseal(format, sealed, length, cipher, index++);
+                    if (payload.length == 0) throw new StreamCorruptedException("Chunk without flags");
+                    chunk = (payload[0] & CHUNK_DEFLATED) != 0 ? inflate(payload, 1, payload.length - 1)
+                            : Arrays.copyOfRange(payload, 1, payload.length);
+                    last = (payload[0] & CHUNK_LAST) != 0;
+                } else {
+                    byte[] payload = unseal(format, sealed, length, cipher, -1);
+                    chunk = (format.flags & DEFLATE) != 0 ? inflate(payload, 0, payload.length) : payload;
+                }
+                position = 0;
+                intactBytes += 4 + length;
+                return true;
+            }
+            
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        }
+    }
+
+    // snapshot file of length + CRC32 framed records, replaced atomically on every save
+    static class TaskStore {
+        static final byte[] MAGIC = "TODOREC1".getBytes(StandardCharsets.US_ASCII);
+        private static final int MAX_RECORD = 16 * 1024 * 1024;
+        private static final int BUFFER_SIZE = 64 * 1024;
+        
+        static class Loaded {
+            final java.util.List<Task> tasks;
+            final long damagedBytes;
+            // the journal position the snapshot was written at, null for files written without one
+            final TaskJournal.Position position;
+            
+            Loaded(java.util.List<Task> tasks, long damagedBytes) {
+                this(tasks, damagedBytes, null);
+            }
+            
+            Loaded(java.util.List<Task> tasks, long damagedBytes, TaskJournal.Position position) {
+                this.tasks = tasks;
+                this.damagedBytes = damagedBytes;
+                this.position = position;
+            }
+        }
+        
+        static void write(Path target, java.util.List<Task> tasks, FsyncPolicy policy,
+                StoragePipeline pipeline) throws IOException {
+            write(target, tasks, policy, pipeline, null);
+        }
+        
+        // written beside the target and renamed over it, so a crash leaves either the old file or the new one;
+        // the journal position goes first as a record without an id, which older readers skip
+        static void write(Path target, java.util.List<Task> tasks, FsyncPolicy policy,
+                StoragePipeline pipeline, TaskJournal.Position position) throws IOException {
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                         pipeline.enabled() ? pipeline.create(file) : file, BUFFER_SIZE))) {
+                out.write(MAGIC);
+                CRC32 crc = new CRC32();
+                StringBuilder sb = new StringBuilder(256);
+                if (position != null) {
+                    sb.append("{\"journal\":\"").append(position.epoch).append("\",\"offset\":")
+                            .append(position.offset).append('}');
+                    writeRecord(out, crc, sb);
+                }
+                for (Task task : tasks) {
+                    sb.setLength(0);
+                    sb.append("{\"id\":").append(task.id).append(',');
+                    TaskTransfer.appendFields(sb, task);
+                    sb.append('}');
+                    writeRecord(out, crc, sb);
+                }
+                out.flush();
+                if (policy != FsyncPolicy.OS) {
+                    file.getChannel().force(false);
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (policy != FsyncPolicy.OS) {
+                forceDirectory(target.toAbsolutePath().getParent());
+            }
+        }
+        
+        private static void writeRecord(DataOutputStream out, CRC32 crc, StringBuilder sb) throws IOException {
+            byte[] payload = sb.toString().getBytes(StandardCharsets.UTF_8);
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+        }
+        
+        // makes the rename itself durable where the platform allows opening a directory
+        private static void forceDirectory(Path dir) {
+            try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // not supported here; the rename is still atomic
+            }
+        }
+        
+        // stops at the first short or mismatching record, so damage costs nothing beyond where it starts
+        @SuppressWarnings("unchecked")
+        static Loaded read(Path path, StoragePipeline pipeline) throws IOException {
+            long size = Files.size(path);
+            try (BufferedInputStream raw = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+                raw.mark(MAGIC.length);
+                byte[] magic = new byte[MAGIC.length];
+                int n = raw.readNBytes(magic, 0, magic.length);
+                raw.reset();
+                if (n >= 2 && (magic[0] & 0xff) == 0xac && (magic[1] & 0xff) == 0xed) {
+                    try (ObjectInputStream ois = new ObjectInputStream(raw)) {
+                        return new Loaded((java.util.List<Task>) ois.readObject(), 0);
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException(e);
+                    }
+                }
+                if (n == StoragePipeline.MAGIC.length && StoragePipeline.isMagic(magic)) {
+                    StoragePipeline.SealedInput sealed = pipeline.open(raw);
+                    return readRecords(new DataInputStream(new BufferedInputStream(sealed, BUFFER_SIZE)),
+                            valid -> Math.max(1, size - sealed.intactBytes()));
+                }
+                if (n == MAGIC.length && Arrays.equals(magic, MAGIC)) {
+                    return readRecords(new DataInputStream(raw), valid -> size - valid);
+                }
+                if (n == size) return new Loaded(new ArrayList<>(), size);
+                throw new IOException("Unrecognised task file " + path);
+            }
+        }
+        
+        // damage maps the bytes of intact records (magic included) to the bytes lost, once a record fails
+        private static Loaded readRecords(DataInputStream in, LongUnaryOperator damage) throws IOException {
+            java.util.List<Task> tasks = new ArrayList<>();
+            TaskJournal.Position position = null;
+            CRC32 crc = new CRC32();
+            byte[] payload = new byte[1024];
+            long valid = 0;
+            try {
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC)) return new Loaded(tasks, damage.applyAsLong(valid));
+                valid = MAGIC.length;
+                while (true) {
+                    int first = in.read();
+                    if (first < 0) return new Loaded(tasks, 0, position);
+                    int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8)
+                            | in.readUnsignedByte();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD) break;
+                    if (payload.length < length) payload = new byte[Math.max(length, payload.length * 2)];
+                    in.readFully(payload, 0, length);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) break;
+                    Map<String, String> fields = Json.parseObject(new String(payload, 0, length, StandardCharsets.UTF_8));
+                    if (fields.get("journal") != null && fields.get("offset") != null) {
+                        position = new TaskJournal.Position(fields.get("journal"), Long.parseLong(fields.get("offset")));
+                        valid += 8 + length;
+                        continue;
+                    }
+                    Task task = TaskTransfer.fromFields(fields);
+                    if (task != null && fields.get("id") != null) {
+                        task.id = Long.parseLong(fields.get("id"));
+                        tasks.add(task);
+                    }
+                    valid += 8 + length;
+                }
+            } catch (EOFException | StreamCorruptedException e) {
+                // torn or damaged tail; everything before it is kept
+            }
+            return new Loaded(tasks, damage.applyAsLong(valid), position);
+        }
+        
+        // appends and snapshot writes under each policy; prints operations per second
+        static void benchmark(int operations) throws IOException {
+            Path dir = Files.createTempDirectory("todo-fsync");
+            java.util.List<Task> tasks = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                tasks.add(new Task("Benchmark task " + i, Priority.MEDIUM, Category.WORK));
+            }
+            System.out.printf("%-7s %14s %16s%n", "policy", "appends/s", "10k snapshots/s");
+            for (FsyncPolicy policy : FsyncPolicy.values()) {
+                Path journalPath = dir.resolve("bench-" + policy + ".journal");
+                long start = System.nanoTime();
+                try (TaskJournal journal = new TaskJournal(journalPath, entry -> { }, () -> { }, policy)) {
+                    for (int i = 0; i < operations; i++) {
+                        journal.append(TaskJournal.UPDATE, tasks.get(i % tasks.size()), -1);
+                    }
+                }
+                double appends = operations / ((System.nanoTime() - start) / 1e9);
+                
+                int snapshots = Math.max(1, operations / 200);
+                start = System.nanoTime();
+                for (int i = 0; i < snapshots; i++) {
+                    write(dir.resolve("bench-" + policy + ".tasks"), tasks, policy, new StoragePipeline(-1, null));
+                }
+                double writes = snapshots / ((System.nanoTime() - start) / 1e9);
+                System.out.printf("%-7s %14.0f %16.1f%n", policy.name().toLowerCase(), appends, writes);
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    static class TaskJournal implements Closeable {
+        static final String ADD = "ADD";
+        static final String UPDATE = "UPDATE";
+        static final String REMOVE = "REMOVE";
+        static final String MOVE = "MOVE";
+        static final String CLEAR = "CLEAR";
+        static final String RELOAD = "RELOAD";
+        static final long COMPACT_THRESHOLD = 1024 * 1024;
+        private static final int READ_CHUNK = 64 * 1024;
+        
+        interface LockedAction<T> {
+            T run() throws IOException;
+        }
+        
+        private final Path path;
+        private final FileChannel channel;
+        private final String instanceId = Long.toHexString(Task.newId());
+        private final Consumer<Map<String, String>> applier;
+        private final Runnable reloader;
+        private final AtomicBoolean syncScheduled = new AtomicBoolean();
+        private final FsyncPolicy fsync;
+        private final StoragePipeline pipeline;
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private ScheduledExecutorService flusher;
+        private WatchService watcher;
+        private FileLock lock;
+        private String epoch;
+        // salt named by the epoch line when its entries are encrypted, otherwise null
+        private String salt;
+        private long offset;
+        // set while entries after a freshly read snapshot are applied
+        private boolean replaying;
+        // chosen by checkpoint() when the journal is due for compaction, started by compactIfNeeded()
+        private String nextEpoch;
+        
+        TaskJournal(Path path, Consumer<Map<String, String>> applier, Runnable reloader) throws IOException {
+            this(path, applier, reloader, FsyncPolicy.configured());
+        }
+        
+        TaskJournal(Path path, Consumer<Map<String, String>> applier, Runnable reloader,
+                FsyncPolicy fsync) throws IOException {
+            this(path, applier, reloader, fsync, StoragePipeline.configured());
+        }
+        
+        // with a passphrase, epochs started here carry a salt and their entries are sealed with it
+        TaskJournal(Path path, Consumer<Map<String, String>> applier, Runnable reloader,
+                FsyncPolicy fsync, StoragePipeline pipeline) throws IOException {
+            this.path = path;
+            this.applier = applier;
+            this.reloader = reloader;
+            this.fsync = fsync;
+            this.pipeline = pipeline;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            withLock(() -> {
+                if (channel.size() == 0) {
+                    startEpoch();
+                }
+                repairTail();
+                skipToEnd();
+                return null;
+            });
+            if (fsync == FsyncPolicy.BATCH) {
+                flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "journal-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                flusher.scheduleWithFixedDelay(this::flush, FsyncPolicy.BATCH_INTERVAL_MS,
+                        FsyncPolicy.BATCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        // the OS lock only excludes other processes, so threads of this instance serialize on the monitor
+        synchronized <T> T withLock(LockedAction<T> action) throws IOException {
+            if (lock != null) {
+                return action.run();
+            }
+            lock = channel.lock();
+            try {
+                return action.run();
+            } finally {
+                lock.release();
+                lock = null;
+            }
+        }
+        
+        void append(String op, Task task, int index) throws IOException {
+            StringBuilder sb = new StringBuilder(160);
+            sb.append("{\"src\":\"").append(instanceId).append("\",\"op\":\"").append(op).append('"');
+            if (index >= 0) {
+                sb.append(",\"index\":").append(index);
+            }
+            if (task != null) {
+                sb.append(",\"id\":").append(task.id).append(',');
+                TaskTransfer.appendFields(sb, task);
+            }
+            sb.append('}');
+            String entry = sb.toString();
+            // no catching up here: applying other instances' entries in the middle of a caller's change would
+            // shift its indices; callers sync before they mutate, and our own line is skipped when read back
+            withLock(() -> {
+                repairTail();
+                String[] header = pipeline.encrypts() ? readHeader() : null;
+                ByteBuffer bytes = frame(header != null && header[1] != null
+                        ? pipeline.sealLine(entry, header[1], header[0]) : entry);
+                long position = channel.size();
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+                if (fsync == FsyncPolicy.ALWAYS) {
+                    channel.force(false);
+                } else {
+                    dirty.set(true);
+                }
+                return null;
+            });
+        }
+        
+        // the entry, a tab, and the CRC32 of the entry in hex
+        private static ByteBuffer frame(String entry) {
+            byte[] payload = entry.getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            ByteBuffer bytes = ByteBuffer.allocate(payload.length + 10);
+            bytes.put(payload).put((byte) '\t');
+            bytes.put(String.format("%08x", crc.getValue()).getBytes(StandardCharsets.US_ASCII)).put((byte) '\n');
+            bytes.flip();
+            return bytes;
+        }
+        
+        // a writer that died mid-line leaves a fragment that would otherwise swallow the next entry
+        private void repairTail() throws IOException {
+            long size = channel.size();
+            if (size == 0 || lastByte(size) == '\n') return;
+            ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+            long end = size;
+            while (end > 0) {
+                long start = Math.max(0, end - READ_CHUNK);
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                channel.read(buffer, start);
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        channel.truncate(start + i + 1);
+                        return;
+                    }
+                }
+                end = start;
+            }
+            channel.truncate(0);
+            startEpoch();
+        }
+        
+        private byte lastByte(long size) throws IOException {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, size - 1);
+            return one.get(0);
+        }
+        
+        private void flush() {
+            if (!dirty.getAndSet(false)) return;
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                // closed underneath us; close() does the final force
+            }
+        }
+        
+        void sync() throws IOException {
+            // the watcher may have queued a sync just before close()
+            if (!channel.isOpen()) return;
+            withLock(() -> {
+                catchUp();
+                return null;
+            });
+        }
+        
+        static class Position {
+            final String epoch;
+            final long offset;
+            
+            Position(String epoch, long offset) {
+                this.epoch = epoch;
+                this.offset = offset;
+            }
+        }
+        
+        Position end() throws IOException {
+            return withLock(() -> new Position(readEpoch(), channel.size()));
+        }
+        
+        // just past the epoch line, for replaying the whole journal when the snapshot lost its tail
+        Position start() throws IOException {
+            return withLock(() -> {
+                ByteBuffer header = ByteBuffer.allocate(128);
+                channel.read(header, 0);
+                for (int i = 0; i < header.position(); i++) {
+                    if (header.get(i) == '\n') {
+                        return new Position(readEpoch(), i + 1);
+                    }
+                }
+                return new Position(readEpoch(), channel.size());
+            });
+        }
+        
+        // applies every entry after from, this instance's own included, since the snapshot it follows may predate
+        // them; reloads in it point at that snapshot or an older one, so they are skipped. Returns false without
+        // moving when from is missing or belongs to another epoch
+        boolean replay(Position from) throws IOException {
+            return withLock(() -> {
+                if (from == null || !from.epoch.equals(readEpoch()) || from.offset > channel.size()) return false;
+                epoch = from.epoch;
+                offset = from.offset;
+                replaying = true;
+                try {
+                    catchUp();
+                } finally {
+                    replaying = false;
+                }
+                return true;
+            });
+        }
+        
+        // catches up and returns the position a snapshot of the model now corresponds to; when the journal is
+        // due for compaction that is the start of the epoch compactIfNeeded() will begin
+        Position checkpoint() throws IOException {
+            return withLock(() -> {
+                catchUp();
+                // a journal started without the passphrase now configured is compacted into an encrypted epoch
+                if (channel.size() > COMPACT_THRESHOLD || (pipeline.encrypts() && salt == null)) {
+                    nextEpoch = Long.toHexString(Task.newId());
+                    return new Position(nextEpoch, epochLine(nextEpoch).remaining());
+                }
+                nextEpoch = null;
+                return new Position(epoch, channel.size());
+            });
+        }
+        
+        void skipToEnd() throws IOException {
+            withLock(() -> {
+                String[] header = readHeader();
+                epoch = header[0];
+                salt = header[1];
+                offset = channel.size();
+                return null;
+            });
+        }
+        
+        // call after the snapshot from checkpoint() has been written so truncating loses nothing
+        void compactIfNeeded() throws IOException {
+            withLock(() -> {
+                if (nextEpoch != null) {
+                    channel.truncate(0);
+                    startEpoch(nextEpoch);
+                    nextEpoch = null;
+                    offset = channel.size();
+                }
+                return null;
+            });
+        }
+        
+        private void catchUp() throws IOException {
+            long size = channel.size();
+            String[] header = readHeader();
+            if (size < offset || !header[0].equals(epoch)) {
+                // another instance compacted the journal; its snapshot already holds everything
+                skipToEnd();
+                reloader.run();
+                return;
+            }
+            salt = header[1];
+            ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long position = offset;
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(READ_CHUNK, size - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0) break;
+                position += read;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    long next = offset + line.size() + 1;
+                    offset = next;
+                    apply(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                    line.reset();
+                    if (offset != next) return;
+                }
+            }
+        }
+        
+        private void apply(String line) {
+            int tab = line.length() - 9;
+            if (tab > 0 && line.charAt(tab) == '\t') {
+                String body = line.substring(0, tab);
+                CRC32 crc = new CRC32();
+                byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+                crc.update(payload, 0, payload.length);
+                if (!String.format("%08x", crc.getValue()).equals(line.substring(tab + 1))) return;
+                line = body;
+            }
+            if (line.startsWith("~")) {
+                try {
+                    line = pipeline.openLine(line, salt, epoch);
+                } catch (IOException e) {
+                    // written under another passphrase, or tampered with
+                    return;
+                }
+            }
+            Map<String, String> entry;
+            try {
+                entry = Json.parseObject(line);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            if (entry.get("op") == null || (!replaying && instanceId.equals(entry.get("src")))) return;
+            if (replaying && RELOAD.equals(entry.get("op"))) return;
+            applier.accept(entry);
+        }
+        
+        private void startEpoch() throws IOException {
+            startEpoch(Long.toHexString(Task.newId()));
+        }
+        
+        private void startEpoch(String id) throws IOException {
+            epoch = id;
+            salt = pipeline.encrypts() ? pipeline.lineSalt() : null;
+            ByteBuffer header = epochLine(id);
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+        
+        // the salt is this process's, so the line for an id is the same whenever it is built
+        private ByteBuffer epochLine(String id) {
+            return StandardCharsets.UTF_8.encode("{\"op\":\"EPOCH\",\"epoch\":\"" + id + "\""
+                    + (pipeline.encrypts() ? ",\"salt\":\"" + pipeline.lineSalt() + "\"" : "") + "}\n");
+        }
+        
+        private String readEpoch() throws IOException {
+            return readHeader()[0];
+        }
+        
+        // the epoch id, "" when unreadable, and its salt or null
+        private String[] readHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(128);
+            channel.read(header, 0);
+            String text = new String(header.array(), 0, header.position(), StandardCharsets.UTF_8);
+            int end = text.indexOf('\n');
+            if (end < 0) return new String[] {"", null};
+            try {
+                Map<String, String> fields = Json.parseObject(text.substring(0, end));
+                String value = fields.get("epoch");
+                return new String[] {value != null ? value : "", fields.get("salt")};
+            } catch (IllegalArgumentException e) {
+                return new String[] {"", null};
+            }
+        }
+        
+        void watch(Runnable onChange) throws IOException {
+            Path dir = path.toAbsolutePath().getParent();
+            watcher = dir.getFileSystem().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        WatchKey key = watcher.take();
+                        boolean changed = false;
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            changed |= path.getFileName().equals(event.context());
+                        }
+                        key.reset();
+                        if (changed && syncScheduled.compareAndSet(false, true)) {
+                            SwingUtilities.invokeLater(() -> {
+                                syncScheduled.set(false);
+                                onChange.run();
+                            });
+                        }
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    // shutting down
+                }
+            }, "journal-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (watcher != null) {
+                watcher.close();
+            }
+            if (flusher != null) {
+                flusher.shutdownNow();
+            }
+            if (fsync != FsyncPolicy.OS && channel.isOpen()) {
+                channel.force(false);
+            }
+            channel.close();
+        }
+    }
+
+    static class TaskTransfer {
+        static final int BUFFER_SIZE = 64 * 1024;
+        static final int BATCH_SIZE = 8192;
+        static final String[] COLUMNS = {"content", "priority", "category", "completed", "createdAt",
+                "completedAt", "dueDate", "recurrence", "recurrenceFrom", "parentId", "tags"};
+        // exports lead with each task's id so an import can point subtasks at their parents' new ids
+        static final String CSV_HEADER = "id," + String.join(",", COLUMNS);
+        
+        interface Progress {
+            void update(long done, long total);
+        }
+        
+        static class Result {
+            final long rows;
+            final long skipped;
+            
+            Result(long rows, long skipped) {
+                this.rows = rows;
+                this.skipped = skipped;
+            }
+        }
+        
+        static Result exportTasks(java.util.List<Task> tasks, Path path, TransferFormat format,
+                Progress progress) throws IOException {
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .onMalformedInput(CodingErrorAction.REPLACE);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            StringBuilder pending = new StringBuilder(BUFFER_SIZE);
+            
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (format == TransferFormat.CSV) {
+                    pending.append(CSV_HEADER).append('\n');
+                }
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (format == TransferFormat.CSV) {
+                        writeCsv(pending, tasks.get(i));
+                    } else {
+                        writeJson(pending, tasks.get(i));
+                    }
+                    pending.append('\n');
+                    if (pending.length() >= BUFFER_SIZE) {
+                        drain(channel, encoder, buffer, pending, false);
+                        progress.update(i + 1, tasks.size());
+                    }
+                }
+                drain(channel, encoder, buffer, pending, true);
+                progress.update(tasks.size(), tasks.size());
+            }
+            return new Result(tasks.size(), 0);
+        }
+        
+        private static void drain(FileChannel channel, CharsetEncoder encoder, ByteBuffer buffer,
+                StringBuilder pending, boolean endOfInput) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(pending);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, endOfInput);
+                if (endOfInput && result.isUnderflow()) {
+                    result = encoder.flush(buffer);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+                if (!result.isOverflow()) break;
+            }
+            // a trailing high surrogate stays buffered until its pair arrives
+            pending.delete(0, chars.position());
+        }
+        
+        static Result importTasks(Path path, TransferFormat format, Consumer<java.util.List<Task>> sink,
+                Progress progress) throws IOException {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .onMalformedInput(CodingErrorAction.REPLACE);
+            ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+            StringBuilder record = new StringBuilder();
+            ImportPipeline pipeline = new ImportPipeline(format, sink);
+            boolean csv = format == TransferFormat.CSV;
+            boolean inQuotes = false;
+            
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long total = channel.size();
+                boolean eof = false;
+                while (!eof) {
+                    eof = channel.read(bytes) < 0;
+                    bytes.flip();
+                    decoder.decode(bytes, chars, eof);
+                    if (eof) {
+                        decoder.flush(chars);
+                    }
+                    bytes.compact();
+                    chars.flip();
+                    while (chars.hasRemaining()) {
+                        char c = chars.get();
+                        if (csv && c == '"') {
+                            inQuotes = !inQuotes;
+                        }
+                        if (c == '\n' && !inQuotes) {
+                            pipeline.accept(record);
+                            record.setLength(0);
+                        } else if (c != '\r' || inQuotes) {
+                            record.append(c);
+                        }
+                    }
+                    chars.clear();
+                    if (pipeline.batchFull()) {
+                        pipeline.flush();
+                        progress.update(channel.position(), total);
+                    }
+                }
+                pipeline.accept(record);
+                pipeline.finish();
+                progress.update(total, total);
+            } finally {
+                // rows that reached the sink before a failure stay imported, so they are relinked too
+                pipeline.relink();
+            }
+            return new Result(pipeline.rows, pipeline.skipped);
+        }
+        
+        // --self-check: subtasks exported in either format and imported again keep their parents, under new ids
+        static boolean checkTransfer() throws Exception {
+            Path dir = Files.createTempDirectory("todo-transfer");
+            try {
+                Task parent = new Task("Transfer check parent", Priority.MEDIUM, Category.WORK);
+                Task child = new Task("Transfer check child", Priority.MEDIUM, Category.WORK);
+                Task grandchild = new Task("Transfer check grandchild", Priority.MEDIUM, Category.WORK);
+                child.parentId = parent.id;
+                grandchild.parentId = child.id;
+                java.util.List<Task> tasks = Arrays.asList(grandchild, parent, child);
+                boolean ok = true;
+                for (TransferFormat format : TransferFormat.values()) {
+                    Path file = dir.resolve("tasks." + format.extension);
+                    exportTasks(tasks, file, format, (done, total) -> { });
+                    java.util.List<Task> imported = new ArrayList<>();
+                    importTasks(file, format, imported::addAll, (done, total) -> { });
+                    Map<String, Task> byContent = new HashMap<>();
+                    for (Task task : imported) {
+                        byContent.put(task.content, task);
+                    }
+                    Task p = byContent.get(parent.content), c = byContent.get(child.content);
+                    Task g = byContent.get(grandchild.content);
+                    boolean linked = imported.size() == 3 && p != null && c != null && g != null
+                            && p.parentId == 0 && c.parentId == p.id && g.parentId == c.id && p.id != parent.id;
+                    System.out.printf("transfer check: %s round trip, subtasks %s: %s%n", format.extension,
+                            linked ? "linked" : "lost", linked ? "OK" : "FAILED");
+                    ok &= linked;
+                }
+                return ok;
+            } finally {
+                deleteTree(dir);
+            }
+        }
+        
+        private static class ImportPipeline {
+            private final TransferFormat format;
+            private final Consumer<java.util.List<Task>> sink;
+            private java.util.List<String> batch = new ArrayList<>(BATCH_SIZE);
+            private ParseBatch inFlight;
+            private boolean headerChecked;
+            private String[] columns;
+            // the id each row was exported with beside the id it was given, and the rows that name a parent
+            private long[] oldIds = new long[1024];
+            private long[] newIds = new long[1024];
+            private int linked;
+            private final java.util.List<Task> children = new ArrayList<>();
+            long rows;
+            long skipped;
+            
+            ImportPipeline(TransferFormat format, Consumer<java.util.List<Task>> sink) {
+                this.format = format;
+                this.sink = sink;
+                this.columns = format == TransferFormat.CSV ? COLUMNS : null;
+            }
+            
+            void accept(StringBuilder record) {
+                if (record.length() == 0) return;
+                String line = record.toString();
+                if (!headerChecked) {
+                    headerChecked = true;
+                    if (format == TransferFormat.CSV) {
+                        // other tools may order or subset the columns differently; a first row that is a task whose
+                        // content happens to start with "content" is still data
+                        String[] fields = parseCsv(line);
+                        if (isHeader(fields)) {
+                            columns = fields;
+                            return;
+                        }
+                    }
+                }
+                batch.add(line);
+            }
+            
+            // trims the names in place for use as keys
+            private static boolean isHeader(String[] fields) {
+                java.util.List<String> known = Arrays.asList(COLUMNS);
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                    if (!fields[i].equals("id") && !known.contains(fields[i])) return false;
+                }
+                return fields.length > 0;
+            }
+            
+            boolean batchFull() {
+                return batch.size() >= BATCH_SIZE;
+            }
+            
+            // parse the current batch on the pool while the caller keeps reading the next one
+            void flush() {
+                if (batch.isEmpty()) return;
+                ParseBatch next = new ParseBatch(columns, batch.toArray(new String[0]));
+                batch = new ArrayList<>(BATCH_SIZE);
+                ForkJoinPool.commonPool().execute(next);
+                deliver();
+                inFlight = next;
+            }
+            
+            void finish() {
+                flush();
+                deliver();
+            }
+            
+            // imported tasks get new ids, so parentId is mapped through the ids rows were exported with; a parent
+            // that is not in the file leaves the subtask at the top level rather than under an unrelated task.
+            // Runs once, after the last batch reached the sink and before the import is announced
+            void relink() {
+                if (children.isEmpty()) return;
+                Set<Long> wanted = new HashSet<>();
+                for (Task child : children) {
+                    wanted.add(child.parentId);
+                }
+                Map<Long, Long> ids = new HashMap<>();
+                for (int i = 0; i < linked; i++) {
+                    if (wanted.contains(oldIds[i])) ids.put(oldIds[i], newIds[i]);
+                }
+                for (Task child : children) {
+                    Long parent = ids.get(child.parentId);
+                    child.parentId = parent != null ? parent : 0;
+                }
+                children.clear();
+            }
+            
+            private void deliver() {
+                if (inFlight == null) return;
+                inFlight.join();
+                java.util.List<Task> parsed = new ArrayList<>(inFlight.out.length);
+                for (int i = 0; i < inFlight.out.length; i++) {
+                    Task task = inFlight.out[i];
+                    if (task == null) {
+                        skipped++;
+                        continue;
+                    }
+                    parsed.add(task);
+                    if (inFlight.ids[i] != 0) {
+                        if (linked == oldIds.length) {
+                            oldIds = Arrays.copyOf(oldIds, linked * 2);
+                            newIds = Arrays.copyOf(newIds, linked * 2);
+                        }
+                        oldIds[linked] = inFlight.ids[i];
+                        newIds[linked++] = task.id;
+                    }
+                    if (task.parentId != 0) {
+                        children.add(task);
+                    }
+                }
+                rows += parsed.size();
+                inFlight = null;
+                if (!parsed.isEmpty()) {
+                    sink.accept(parsed);
+                }
+            }
+        }
+        
+        private static class ParseBatch extends RecursiveAction {
+            private static final long serialVersionUID = -2556998555890956160L;
+            private static final int THRESHOLD = 512;
+            private final String[] columns;
+            private final String[] lines;
+            private final Task[] out;
+            // the id each row was exported with, 0 when it has none
+            private final long[] ids;
+            private final int from, to;
+            
+            ParseBatch(String[] columns, String[] lines) {
+                this(columns, lines, new Task[lines.length], new long[lines.length], 0, lines.length);
+            }
+            
+            private ParseBatch(String[] columns, String[] lines, Task[] out, long[] ids, int from, int to) {
+                this.columns = columns;
+                this.lines = lines;
+                this.out = out;
+                this.ids = ids;
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected void compute() {
+                if (to - from <= THRESHOLD) {
+                    for (int i = from; i < to; i++) {
+                        out[i] = parse(columns, lines[i], ids, i);
+                    }
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParseBatch(columns, lines, out, ids, from, mid),
+                          new ParseBatch(columns, lines, out, ids, mid, to));
+            }
+        }
+        
+        // columns is the CSV header in use, or null for JSON Lines; ids[at] gets the id the row was exported with
+        static Task parse(String[] columns, String line, long[] ids, int at) {
+            try {
+                Map<String, String> fields;
+                if (columns == null) {
+                    fields = Json.parseObject(line);
+                } else {
+                    String[] values = parseCsv(line);
+                    fields = new HashMap<>();
+                    for (int i = 0; i < values.length && i < columns.length; i++) {
+                        fields.put(columns[i], values[i]);
+                    }
+                }
+                Task task = fromFields(fields);
+                String id = emptyToNull(fields.get("id"));
+                if (task != null && id != null) {
+                    try {
+                        ids[at] = Long.parseLong(id.trim());
+                    } catch (NumberFormatException e) {
+                        // kept without one; its subtasks move to the top level
+                    }
+                }
+                return task;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        
+        static Task fromFields(Map<String, String> fields) {
+            String content = fields.get("content");
+            String priority = fields.get("priority");
+            String category = fields.get("category");
+            if (content == null || content.trim().isEmpty() || priority == null || category == null) return null;
+            try {
+                Priority p = Priority.valueOf(priority.trim().toUpperCase());
+                Category c = Category.valueOf(category.trim().toUpperCase());
+                String createdAt = fields.get("createdAt");
+                Task task = createdAt != null && !createdAt.isEmpty()
+                        ? new Task(content, p, c, createdAt) : new Task(content, p, c);
+                task.completed = Boolean.parseBoolean(fields.get("completed"));
+                task.completedAt = emptyToNull(fields.get("completedAt"));
+                String dueDate = fields.get("dueDate");
+                task.dueDate = dueDate != null ? dueDate : "";
+                String recurrence = emptyToNull(fields.get("recurrence"));
+                if (recurrence != null) {
+                    task.recurrence = Recurrence.parse(recurrence).text;
+                    task.recurrenceFrom = emptyToNull(fields.get("recurrenceFrom"));
+                    // checked here because the scheduler parses it without a catch; a bad anchor only loses the
+                    // anchor, and the task recurs from now like one that never had one
+                    if (task.recurrenceFrom != null) {
+                        try {
+                            LocalDateTime.parse(task.recurrenceFrom, Task.CREATED_FORMAT);
+                        } catch (DateTimeParseException e) {
+                            task.recurrenceFrom = null;
+                        }
+                    }
+                }
+                String parentId = emptyToNull(fields.get("parentId"));
+                if (parentId != null) {
+                    task.parentId = Long.parseLong(parentId);
+                }
+                task.tags = Task.normalizeTags(fields.get("tags"));
+                return task;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        
+        private static String emptyToNull(String value) {
+            return value == null || value.isEmpty() ? null : value;
+        }
+        
+        static String[] values(Task task) {
+            return new String[] {task.content, task.priority.name(), task.category.name(),
+                    String.valueOf(task.completed), task.createdAt, task.completedAt, task.dueDate,
+                    task.recurrence, task.recurrenceFrom, task.parentId != 0 ? String.valueOf(task.parentId) : null, task.tags};
+        }
+        
+        static void writeCsv(StringBuilder sb, Task task) {
+            sb.append(task.id).append(',');
+            String[] values = values(task);
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) sb.append(',');
+                appendCsv(sb, values[i]);
+            }
+        }
+        
+        static void writeJson(StringBuilder sb, Task task) {
+            sb.append("{\"id\":").append(task.id).append(',');
+            appendFields(sb, task);
+            sb.append('}');
+        }
+        
+        static void appendFields(StringBuilder sb, Task task) {
+            String[] values = values(task);
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append('"').append(COLUMNS[i]).append("\":");
+                if (COLUMNS[i].equals("completed")) {
+                    sb.append(values[i]);
+                } else {
+                    Json.appendString(sb, values[i]);
+                }
+            }
+        }
+        
+        private static StringBuilder appendCsv(StringBuilder sb, String value) {
+            if (value == null) return sb;
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) return sb.append(value);
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') sb.append('"');
+                sb.append(c);
+            }
+            return sb.append('"');
+        }
+        
+        static String[] parseCsv(String line) {
+            java.util.List<String> fields = new ArrayList<>(8);
+            StringBuilder field = new StringBuilder();
+            boolean inQuotes = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (inQuotes) {
+                    if (c == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            inQuotes = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    inQuotes = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (inQuotes) throw new IllegalArgumentException("Unterminated quoted field");
+            fields.add(field.toString());
+            return fields.toArray(new String[0]);
+        }
+    }
+
+    static class Json {
+        static void appendString(StringBuilder sb, String value) {
+            if (value == null) {
+                sb.append("null");
+                return;
+            }
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+        
+        // flat objects only: string, number, boolean and null values; values come back as raw text
+        static Map<String, String> parseObject(String text) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            int[] pos = {skipWhitespace(text, 0)};
+            expect(text, pos, '{');
+            if (peek(text, pos) == '}') {
+                pos[0]++;
+                return fields;
+            }
+            while (true) {
+                String key = readString(text, pos);
+                expect(text, pos, ':');
+                fields.put(key, readValue(text, pos));
+                char c = peek(text, pos);
+                pos[0]++;
+                if (c == '}') return fields;
+                if (c != ',') throw new IllegalArgumentException("Expected ',' or '}' at " + (pos[0] - 1));
+            }
+        }
+        
+        private static String readValue(String text, int[] pos) {
+            if (peek(text, pos) == '"') return readString(text, pos);
+            int start = pos[0];
+            while (pos[0] < text.length() && ",}".indexOf(text.charAt(pos[0])) < 0) {
+                pos[0]++;
+            }
+            String raw = text.substring(start, pos[0]).trim();
+            if (raw.isEmpty()) throw new IllegalArgumentException("Missing value at " + start);
+            return raw.equals("null") ? null : raw;
+        }
+        
+        private static String readString(String text, int[] pos) {
+            expect(text, pos, '"');
+            StringBuilder sb = new StringBuilder();
+            while (pos[0] < text.length()) {
+                char c = text.charAt(pos[0]++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos[0] >= text.length()) break;
+                char e = text.charAt(pos[0]++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos[0] + 4 > text.length()) throw new IllegalArgumentException("Bad escape");
+                        sb.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16));
+                        pos[0] += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+        
+        private static void expect(String text, int[] pos, char expected) {
+            if (peek(text, pos) != expected) {
+                throw new IllegalArgumentException("Expected '" + expected + "' at " + pos[0]);
+            }
+            pos[0]++;
+        }
+        
+        private static char peek(String text, int[] pos) {
+            pos[0] = skipWhitespace(text, pos[0]);
+            if (pos[0] >= text.length()) throw new IllegalArgumentException("Unexpected end of input");
+            return text.charAt(pos[0]);
+        }
+        
+        private static int skipWhitespace(String text, int pos) {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos;
+        }
+    }
+
+    // synthetic load: add/complete/move/clear at a fixed rate against a TaskService or the real window
+    static class LoadHarness {
+        enum Op { ADD, COMPLETE, MOVE, CLEAR }
+        
+        interface Driver {
+            void preload(int count) throws Exception;
+            void run(Op op, Random random) throws Exception;
+            int size();
+            Path[] files();
+        }
+        
+        // log-linear buckets of microseconds, exact below 64 and within 1/32 above
+        static class LatencyHistogram {
+            private final long[] counts = new long[64 * 32];
+            private long count, max;
+            
+            synchronized void record(long micros) {
+                long value = Math.max(0, micros);
+                counts[bucket(value)]++;
+                count++;
+                max = Math.max(max, value);
+            }
+            
+            synchronized void add(LatencyHistogram other) {
+                for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+                count += other.count;
+                max = Math.max(max, other.max);
+            }
+            
+            synchronized long count() {
+                return count;
+            }
+            
+            synchronized long max() {
+                return max;
+            }
+            
+            // the upper bound of the bucket holding the given percentile
+            synchronized long percentile(double percentile) {
+                if (count == 0) return 0;
+                long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) return Math.min(max, upperBound(i));
+                }
+                return max;
+            }
+            
+            synchronized LatencyHistogram drain() {
+                LatencyHistogram drained = new LatencyHistogram();
+                drained.add(this);
+                Arrays.fill(counts, 0);
+                count = 0;
+                max = 0;
+                return drained;
+            }
+            
+            private static int bucket(long value) {
+                int shift = 58 - Long.numberOfLeadingZeros(value);
+                if (shift <= 0) return (int) value;
+                return (shift << 5) + (int) (value >>> shift);
+            }
+            
+            private static long upperBound(int bucket) {
+                if (bucket < 64) return bucket;
+                int shift = (bucket >> 5) - 1;
+                return ((long) (bucket - (shift << 5) + 1) << shift) - 1;
+            }
+        }
+        
+        // stop-the-world pauses reported by the collectors; concurrent cycles are left out
+        static class GcPauses implements NotificationListener {
+            private final java.util.List<NotificationEmitter> emitters = new ArrayList<>();
+            private long count, totalMillis, maxMillis;
+            
+            GcPauses() {
+                for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    String name = collector.getName();
+                    if (name.contains("Concurrent") || name.contains("Cycles")) continue;
+                    if (collector instanceof NotificationEmitter) {
+                        ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+                        emitters.add((NotificationEmitter) collector);
+                    }
+                }
+            }
+            
+            @Override
+            public synchronized void handleNotification(Notification notification, Object handback) {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+                long millis = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+                        .getGcInfo().getDuration();
+                count++;
+                totalMillis += millis;
+                maxMillis = Math.max(maxMillis, millis);
+            }
+            
+            // count, total and longest pause since the last call
+            synchronized long[] drain() {
+                long[] pauses = {count, totalMillis, maxMillis};
+                count = totalMillis = maxMillis = 0;
+                return pauses;
+            }
+            
+            void close() {
+                for (NotificationEmitter emitter : emitters) {
+                    try {
+                        emitter.removeNotificationListener(this);
+                    } catch (ListenerNotFoundException ignored) {
+                    }
+                }
+            }
+        }
+        
+        private static final String[] WORDS = {"Review", "Call", "Write", "Fix", "Plan", "Order", "Email", "Book",
+                "report", "supplier", "invoice", "release notes", "dentist", "groceries", "budget", "sprint"};
+        
+        static Task syntheticTask(Random random, int n) {
+            Task task = new Task(syntheticContent(random, n),
+                    Priority.values()[random.nextInt(Priority.values().length)],
+                    Category.values()[random.nextInt(Category.values().length)]);
+            if (random.nextInt(3) == 0) task.tags = Task.normalizeTags("soak load");
+            return task;
+        }
+        
+        static String syntheticContent(Random random, int n) {
+            return WORDS[random.nextInt(8)] + " " + WORDS[8 + random.nextInt(8)] + " #" + n;
+        }
+        
+        // drives TaskService the way the window does, on the EDT, saving every saveEvery changes
+        static class ServiceDriver implements Driver {
+            private final Path dir;
+            private final int saveEvery;
+            private final HistoryLog history;
+            private final TaskService service;
+            private volatile int size;
+            private int unsaved;
+            private int added;
+            
+            ServiceDriver(Path dir, int saveEvery) throws Exception {
+                this.dir = dir;
+                this.saveEvery = Math.max(1, saveEvery);
+                history = new HistoryLog(dir.resolve("enhanced_history.txt"));
+                history.load();
+                service = new TaskService(dir.resolve("enhanced_tasks.txt").toFile(),
+                        dir.resolve("enhanced_tasks.journal").toFile(), entry -> {
+                            try {
+                                history.append(entry);
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        });
+                SyncServer.onEdt(() -> {
+                    service.openJournal();
+                    service.load();
+                    size = service.model.getSize();
+                    return null;
+                });
+            }
+            
+            @Override
+            public void preload(int count) throws Exception {
+                Random random = new Random(count);
+                java.util.List<Task> tasks = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) tasks.add(syntheticTask(random, i));
+                SyncServer.onEdt(() -> {
+                    service.addAll(tasks);
+                    service.save();
+                    service.announceBulkChange();
+                    size = service.model.getSize();
+                    return null;
+                });
+            }
+            
+            @Override
+            public void run(Op op, Random random) throws Exception {
+                SyncServer.onEdt(() -> {
+                    int count = service.model.getSize();
+                    boolean changed = true;
+                    if (op == Op.ADD) {
+                        Task task = syntheticTask(random, added++);
+                        service.add(task.content, task.priority, task.category);
+                    } else if (op == Op.COMPLETE) {
+                        changed = count > 0 && service.complete(random.nextInt(count));
+                    } else if (op == Op.MOVE) {
+                        int index = count > 1 ? 1 + random.nextInt(count - 1) : 0;
+                        if (changed = index > 0) service.move(index, index - 1);
+                    } else {
+                        changed = service.clearCompleted() > 0;
+                    }
+                    if (changed && ++unsaved >= saveEvery) {
+                        service.save();
+                        unsaved = 0;
+                    }
+                    size = service.model.getSize();
+                    return null;
+                });
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+            
+            @Override
+            public Path[] files() {
+                return new Path[] {dir.resolve("enhanced_tasks.txt"), dir.resolve("enhanced_tasks.journal"),
+                        dir.resolve("enhanced_history.txt")};
+            }
+        }
+        
+        // drives the real window through the same handlers its buttons call, answering its confirm dialogs
+        static class WindowDriver implements Driver {
+            private EnhancedTodoList app;
+            private volatile int size;
+            private int added;
+            
+            WindowDriver() throws Exception {
+                SwingUtilities.invokeAndWait(() -> app = new EnhancedTodoList(false));
+                size = SyncServer.onEdt(() -> app.taskListModel.getSize());
+            }
+            
+            @Override
+            public void preload(int count) throws Exception {
+                Random random = new Random(count);
+                java.util.List<Task> tasks = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) tasks.add(syntheticTask(random, i));
+                SwingUtilities.invokeAndWait(() -> {
+                    app.addTasksBulk(tasks);
+                    app.updateStats();
+                    app.saveData();
+                    app.taskService.announceBulkChange();
+                    size = app.taskListModel.getSize();
+                });
+            }
+            
+            @Override
+            public void run(Op op, Random random) throws Exception {
+                if (op == Op.CLEAR) {
+                    FutureTask<Void> clear = new FutureTask<>(app::removeCompletedTasks, null);
+                    SwingUtilities.invokeLater(clear);
+                    answerDialogs(clear);
+                } else {
+                    SwingUtilities.invokeAndWait(() -> {
+                        int count = app.taskListModel.getSize();
+                        if (op == Op.ADD) {
+                            Task task = syntheticTask(random, added++);
+                            app.inputField.setText(task.content);
+                            app.priorityCombo.setSelectedItem(task.priority);
+                            app.categoryCombo.setSelectedItem(task.category);
+                            app.addTask();
+                        } else if (count > 0) {
+                            int index = op == Op.MOVE && count > 1 ? 1 + random.nextInt(count - 1) : random.nextInt(count);
+                            app.taskList.setSelectedIndex(index);
+                            app.taskList.ensureIndexIsVisible(index);
+                            if (op == Op.COMPLETE) {
+                                app.markDone();
+                            } else {
+                                app.moveTaskUp();
+                            }
+                        }
+                    });
+                }
+                // the repaints queued by the change run before this returns
+                SwingUtilities.invokeAndWait(() -> size = app.taskListModel.getSize());
+            }
+            
+            private static void answerDialogs(FutureTask<Void> action) throws Exception {
+                while (true) {
+                    try {
+                        action.get(5, TimeUnit.MILLISECONDS);
+                        return;
+                    } catch (TimeoutException e) {
+                        for (Window window : Window.getWindows()) {
+                            if (!(window instanceof JDialog) || !window.isShowing()) continue;
+                            Container content = ((JDialog) window).getContentPane();
+                            if (content.getComponentCount() > 0 && content.getComponent(0) instanceof JOptionPane) {
+                                JOptionPane pane = (JOptionPane) content.getComponent(0);
+                                SwingUtilities.invokeLater(() -> pane.setValue(JOptionPane.YES_OPTION));
+                            }
+                        }
+                    }
+                }
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+            
+            @Override
+            public Path[] files() {
+                return new Path[] {app.tasksFile.toPath(), app.journalFile.toPath(), app.historyFile.toPath()};
+            }
+        }
+        
+        // --soak[=seconds] --rate=ops/s --preload=N --mix=add:40,... --interval=s --save-every=N --dir=D --report=csv --gui
+        static void run(String[] args) throws Exception {
+            long seconds = 60;
+            double rate = 100;
+            int preload = 0, interval = 10, saveEvery = 1;
+            String mix = "add:40,complete:30,move:25,clear:5";
+            Path dir = null, report = null;
+            boolean gui = false;
+            for (String arg : args) {
+                String value = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : null;
+                if (arg.startsWith("--soak=")) seconds = Long.parseLong(value);
+                else if (arg.startsWith("--rate=")) rate = Double.parseDouble(value);
+                else if (arg.startsWith("--preload=")) preload = Integer.parseInt(value);
+                else if (arg.startsWith("--mix=")) mix = value;
+                else if (arg.startsWith("--interval=")) interval = Integer.parseInt(value);
+                else if (arg.startsWith("--save-every=")) saveEvery = Integer.parseInt(value);
+                else if (arg.startsWith("--dir=")) dir = Path.of(value);
+                else if (arg.startsWith("--report=")) report = Path.of(value);
+                else if (arg.equals("--gui")) gui = true;
+            }
+            Op[] ops = Op.values();
+            int[] weights = new int[ops.length];
+            for (String part : mix.split(",")) {
+                String[] pair = part.trim().split(":");
+                weights[Op.valueOf(pair[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(pair[1].trim());
+            }
+            int totalWeight = Arrays.stream(weights).sum();
+            if (totalWeight <= 0 || rate <= 0) throw new IllegalArgumentException("--mix and --rate must be positive");
+            
+            Driver driver;
+            if (gui) {
+                if (GraphicsEnvironment.isHeadless()) {
+                    throw new HeadlessException("--gui needs a display, e.g. xvfb-run -a java ... --soak --gui");
+                }
+                driver = new WindowDriver();
+            } else {
+                if (dir == null) dir = Files.createTempDirectory("todo-soak");
+                Files.createDirectories(dir);
+                driver = new ServiceDriver(dir, saveEvery);
+            }
+            if (preload > 0) {
+                long start = System.nanoTime();
+                driver.preload(preload);
+                System.out.printf("preloaded %d tasks in %d ms%n", preload, (System.nanoTime() - start) / 1_000_000);
+            }
+            System.out.printf("soak: %s, %d s at %.0f ops/s, mix %s, files in %s%n", gui ? "window" : "service",
+                    seconds, rate, mix, driver.files()[0].toAbsolutePath().getParent());
+            
+            PrintWriter csv = report != null ? new PrintWriter(Files.newBufferedWriter(report)) : null;
+            String header = "elapsed_s,ops,ops_per_s,p50_us,p90_us,p99_us,p999_us,max_us,"
+                    + "gc_count,gc_total_ms,gc_max_ms,heap_mb,tasks,tasks_bytes,journal_bytes,history_bytes";
+            if (csv != null) csv.println(header);
+            System.out.printf("%7s %8s %8s %8s %8s %9s %8s %9s %7s %8s %10s %10s %10s%n", "time s", "ops/s", "p50 ms",
+                    "p99 ms", "p99.9 ms", "max ms", "gc", "gc max ms", "heap MB", "tasks", "tasks B", "journal B",
+                    "history B");
+            
+            LatencyHistogram window = new LatencyHistogram();
+            LatencyHistogram overall = new LatencyHistogram();
+            LatencyHistogram[] perOp = new LatencyHistogram[ops.length];
+            for (int i = 0; i < ops.length; i++) perOp[i] = new LatencyHistogram();
+            GcPauses gc = new GcPauses();
+            long start = System.nanoTime();
+            long[] lastReport = {start};
+            Runnable sample = () -> {
+                long now = System.nanoTime();
+                LatencyHistogram interim = window.drain();
+                long[] pauses = gc.drain();
+                Runtime runtime = Runtime.getRuntime();
+                long heap = (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+                long[] sizes = new long[3];
+                Path[] files = driver.files();
+                for (int i = 0; i < files.length; i++) {
+                    try {
+                        sizes[i] = Files.exists(files[i]) ? Files.size(files[i]) : 0;
+                    } catch (IOException e) {
+                        sizes[i] = -1;
+                    }
+                }
+                double elapsed = (now - start) / 1e9;
+                double achieved = interim.count() / Math.max(1e-9, (now - lastReport[0]) / 1e9);
+                lastReport[0] = now;
+                System.out.printf("%7.0f %8.0f %8.2f %8.2f %8.2f %9.2f %8d %9d %7d %8d %10d %10d %10d%n", elapsed,
+                        achieved, interim.percentile(50) / 1e3, interim.percentile(99) / 1e3,
+                        interim.percentile(99.9) / 1e3, interim.max() / 1e3, pauses[0], pauses[2], heap,
+                        driver.size(), sizes[0], sizes[1], sizes[2]);
+                if (csv != null) {
+                    csv.printf(Locale.ROOT, "%.1f,%d,%.1f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d%n", elapsed,
+                            interim.count(), achieved, interim.percentile(50), interim.percentile(90),
+                            interim.percentile(99), interim.percentile(99.9), interim.max(), pauses[0], pauses[1],
+                            pauses[2], heap, driver.size(), sizes[0], sizes[1], sizes[2]);
+                    csv.flush();
+                }
+            };
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "soak-report");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(sample, interval, interval, TimeUnit.SECONDS);
+            
+            // open loop: latency counts from when an operation was due, so a stall also charges the ops queued behind it;
+            // ops still queued at the deadline are dropped
+            Random random = new Random(42);
+            long period = (long) (1e9 / rate);
+            long end = start + seconds * 1_000_000_000L;
+            try {
+                for (long due = start; due < end && System.nanoTime() < end; due += period) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                    int pick = random.nextInt(totalWeight);
+                    Op op = ops[0];
+                    for (int i = 0; i < ops.length; i++) {
+                        pick -= weights[i];
+                        if (pick < 0) {
+                            op = ops[i];
+                            break;
+                        }
+                    }
+                    driver.run(op, random);
+                    long micros = (System.nanoTime() - due) / 1000;
+                    window.record(micros);
+                    overall.record(micros);
+                    perOp[op.ordinal()].record(micros);
+                }
+            } finally {
+                reporter.shutdown();
+                reporter.awaitTermination(5, TimeUnit.SECONDS);
+                if (window.count() > 0) sample.run();
+                gc.close();
+                if (csv != null) csv.close();
+            }
+            
+            System.out.printf("%n%-9s %9s %8s %8s %8s %8s %9s%n", "op", "count", "p50 ms", "p90 ms", "p99 ms",
+                    "p99.9 ms", "max ms");
+            for (int i = 0; i <= ops.length; i++) {
+                LatencyHistogram histogram = i < ops.length ? perOp[i] : overall;
+                if (histogram.count() == 0) continue;
+                System.out.printf("%-9s %9d %8.2f %8.2f %8.2f %8.2f %9.2f%n",
+                        i < ops.length ? ops[i].name().toLowerCase() : "all", histogram.count(),
+                        histogram.percentile(50) / 1e3, histogram.percentile(90) / 1e3, histogram.percentile(99) / 1e3,
+                        histogram.percentile(99.9) / 1e3, histogram.max() / 1e3);
+            }
+            double achieved = overall.count() / ((System.nanoTime() - start) / 1e9);
+            System.out.printf("achieved %.0f of %.0f ops/s%n", achieved, rate);
+        }
+    }
+
+    // scratch directories of the self-checks
+    static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    public static void main(String[] args) {
+        if (STARTUP_BENCHMARK) {
+            launchedAt = ManagementFactory.getRuntimeMXBean().getStartTime();
+        }
+        boolean headless = false;
+        boolean fastStart = false;
+        int port = -1;
+        String bind = "127.0.0.1";
+        for (String arg : args) {
+            if (arg.equals("--headless")) {
+                headless = true;
+            } else if (arg.equals("--fast-start")) {
+                fastStart = true;
+            } else if (arg.equals("--serve")) {
+                port = SyncServer.DEFAULT_PORT;
+            } else if (arg.startsWith("--serve=")) {
+                port = Integer.parseInt(arg.substring("--serve=".length()));
+            } else if (arg.startsWith("--bind=")) {
+                bind = arg.substring("--bind=".length());
+            } else if (arg.equals("--bench-pipeline") || arg.startsWith("--bench-pipeline=")) {
+                int count = arg.contains("=") ? Integer.parseInt(arg.substring(arg.indexOf('=') + 1)) : 100_000;
+                try {
+                    StoragePipeline.benchmark(count);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+                return;
+            } else if (arg.equals("--soak") || arg.startsWith("--soak=")) {
+                try {
+                    LoadHarness.run(args);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+                System.exit(0);
+            } else if (arg.equals("--check-recovery")) {
+                try {
+                    System.exit(TaskService.checkRecovery() ? 0 : 1);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            } else if (arg.equals("--self-check")) {
+                try {
+                    boolean ok = TaskService.checkRecovery();
+                    ok &= TaskArchive.checkArchive();
+                    ok &= HistoryLog.checkHistory();
+                    ok &= TaskTransfer.checkTransfer();
+                    System.exit(ok ? 0 : 1);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            } else if (arg.equals("--bench-fsync") || arg.startsWith("--bench-fsync=")) {
+                int operations = arg.contains("=") ? Integer.parseInt(arg.substring(arg.indexOf('=') + 1)) : 2000;
+                try {
+                    TaskStore.benchmark(operations);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+                return;
+            }
+        }
+        InetSocketAddress address = port >= 0 ? new InetSocketAddress(bind, port) : null;
+        
+        if (headless) {
+            if (address == null) {
+                System.err.println("--headless needs --serve[=port]");
+                System.exit(2);
+            }
+            runHeadless(address);
+            return;
+        }
+        
+        boolean fast = fastStart;
+        SwingUtilities.invokeLater(() -> {
+            try {
+               
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+                
+               
+                System.setProperty("awt.useSystemAAFontSettings", "on");
+                System.setProperty("swing.aatext", "true");
+                
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            
+            EnhancedTodoList app = new EnhancedTodoList(fast);
+            if (address != null) {
+                app.startSyncServer(address);
+            }
+        });
+    }
+
+    private static void runHeadless(InetSocketAddress address) {
+        HistoryLog history = new HistoryLog(new File("enhanced_history.txt").toPath());
+        try {
+            history.load();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        TaskService service = new TaskService(new File("enhanced_tasks.txt"), new File("enhanced_tasks.journal"),
+                entry -> {
+                    try {
+                        history.append(entry);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+        try {
+            SyncServer server = SyncServer.onEdt(() -> {
+                service.openJournal();
+                service.load();
+                SyncServer created = new SyncServer(service, address, System.getenv("TODO_SYNC_TOKEN"), () -> {
+                    try {
+                        service.save();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+                created.start();
+                return created;
+            });
+            System.out.println("Sync server listening on " + server.getAddress());
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private void startSyncServer(InetSocketAddress address) {
+        try {
+            syncServer = new SyncServer(taskService, address, System.getenv("TODO_SYNC_TOKEN"), () -> {
+                updateStats();
+                saveData();
+            });
+            syncServer.start();
+            setTitle(getTitle() + " - syncing on port " + syncServer.getAddress().getPort());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not start sync server: " + e.getMessage(),
+                    "Sync Error", JOptionPane.ERROR_MESSAGE);
+        }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
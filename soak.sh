@@ -0,0 +1,27 @@
+#!/bin/sh
+# Builds the app and runs the load harness in a scratch directory: headless against TaskService by default,
+# or against the real window with GUI=1, under xvfb-run when there is no display.
+# Extra arguments go to the harness, e.g. ./soak.sh --soak=600 --rate=50 --preload=10000 --mix=add:60,clear:40
+set -e
+OUT=${OUT:-build}
+DIR=${DIR:-soak-$(date +%Y%m%d-%H%M%S)}
+JAVA_OPTS=${JAVA_OPTS:--Xmx256m}
+
+mkdir -p "$OUT" "$DIR"
+javac -encoding UTF-8 -d "$OUT" EnhancedTodoList.java
+CP=$(cd "$OUT" && pwd)
+
+if [ -n "$GUI" ]; then
+    display() {
+        if [ -n "$DISPLAY" ]; then
+            "$@"
+        else
+            xvfb-run -a -s "-screen 0 1280x1024x24" "$@"
+        fi
+    }
+    # the window keeps its files in the working directory
+    (cd "$DIR" && display java $JAVA_OPTS -cp "$CP" EnhancedTodoList --soak --gui --report=soak.csv "$@")
+else
+    java -Djava.awt.headless=true $JAVA_OPTS -cp "$CP" EnhancedTodoList --soak --dir="$DIR" --report="$DIR/soak.csv" "$@"
+fi
+echo "report: $DIR/soak.csv"
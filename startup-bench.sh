@@ -0,0 +1,24 @@
+#!/bin/sh
+# Builds the app, creates an AppCDS archive (JDK 13+) and reports time-to-first-interactive
+# for a plain start, --fast-start, and --fast-start with the archive. Needs a display.
+set -e
+RUNS=${RUNS:-5}
+OUT=${OUT:-build}
+
+mkdir -p "$OUT"
+javac -encoding UTF-8 -d "$OUT" EnhancedTodoList.java
+java -XX:ArchiveClassesAtExit="$OUT/todo.jsa" -Dtodo.startupBenchmark=true -cp "$OUT" EnhancedTodoList --fast-start > /dev/null
+
+run() {
+    label=$1
+    shift
+    i=0
+    while [ "$i" -lt "$RUNS" ]; do
+        java "$@" -Dtodo.startupBenchmark=true -cp "$OUT" EnhancedTodoList $ARGS | sed "s/^/$label /"
+        i=$((i + 1))
+    done
+}
+
+ARGS= run "plain" -Xshare:auto
+ARGS=--fast-start run "fast " -Xshare:auto
+ARGS=--fast-start run "cds  " -XX:SharedArchiveFile="$OUT/todo.jsa"